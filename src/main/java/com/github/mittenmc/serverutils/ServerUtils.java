@@ -2,6 +2,7 @@ package com.github.mittenmc.serverutils;
 
 import com.github.mittenmc.serverutils.command.ExecCommand;
 import com.github.mittenmc.serverutils.command.GenericCommandManager;
+import com.github.mittenmc.serverutils.player.JoinPipeline;
 import lombok.Getter;
 import org.bukkit.plugin.java.JavaPlugin;
 
@@ -12,14 +13,24 @@ public final class ServerUtils extends JavaPlugin {
 
     @Getter
     private static ServerUtils instance;
+    private JoinPipeline joinPipeline;
 
     @Override
     public void onEnable() {
         instance = this;
         getServer().getPluginManager().registerEvents(new PlayerNameCache(), this);
+        joinPipeline = new JoinPipeline(this);
+        getServer().getPluginManager().registerEvents(joinPipeline, this);
 
         new GenericCommandManager(getCommand("serverutils"));
         Objects.requireNonNull(getCommand("exec")).setExecutor(new ExecCommand());
     }
 
+    @Override
+    public void onDisable() {
+        if (joinPipeline != null) {
+            joinPipeline.shutdown();
+        }
+    }
+
 }
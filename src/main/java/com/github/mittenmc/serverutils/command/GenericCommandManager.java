@@ -1,7 +1,9 @@
 package com.github.mittenmc.serverutils.command;
 
 import com.github.mittenmc.serverutils.CommandManager;
+import com.github.mittenmc.serverutils.command.generic.DatabaseCommand;
 import com.github.mittenmc.serverutils.command.generic.MessageCommand;
+import com.github.mittenmc.serverutils.command.generic.PlayerDataCommand;
 import com.github.mittenmc.serverutils.command.generic.SoundCommand;
 import com.github.mittenmc.serverutils.command.generic.TitleCommand;
 import org.bukkit.command.PluginCommand;
@@ -9,7 +11,7 @@ import org.bukkit.command.PluginCommand;
 /**
  * Supports various utility commands for this plugin
  * @author GavvyDizzle
- * @version 1.1.7
+ * @version 1.1.8
  * @since 1.1.6
  */
 public class GenericCommandManager extends CommandManager {
@@ -18,7 +20,9 @@ public class GenericCommandManager extends CommandManager {
         super(command);
 
         registerCommand(new HelpCommand.HelpCommandBuilder(this).build());
+        registerCommand(new DatabaseCommand(this));
         registerCommand(new MessageCommand(this));
+        registerCommand(new PlayerDataCommand(this));
         registerCommand(new SoundCommand(this));
         registerCommand(new TitleCommand(this));
     }
@@ -0,0 +1,131 @@
+package com.github.mittenmc.serverutils.command.generic;
+
+import com.github.mittenmc.serverutils.CommandManager;
+import com.github.mittenmc.serverutils.SubCommand;
+import com.github.mittenmc.serverutils.database.DatabaseConnectionPool;
+import com.github.mittenmc.serverutils.database.PoolMetrics;
+import com.github.mittenmc.serverutils.database.SlowQueryLog;
+import com.github.mittenmc.serverutils.utils.LatencyHistogram;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.util.StringUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Displays connection pool and query statistics of every plugin's database.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+public class DatabaseCommand extends SubCommand {
+
+    private static final int MAX_QUERIES_SHOWN = 5;
+    private static final int MAX_SLOW_QUERIES_SHOWN = 10;
+    private static final List<String> actions = List.of("reset", "slow");
+
+    public DatabaseCommand(CommandManager commandManager) {
+        setName("db");
+        setDescription("View database pool and query statistics");
+        setSyntax("/" + commandManager.getCommandDisplayName() + " db [plugin] [reset|slow]");
+        setColoredSyntax(ChatColor.YELLOW + getSyntax());
+        setPermission(commandManager.getPermissionPrefix() + getName().toLowerCase());
+    }
+
+    @Override
+    public void perform(CommandSender sender, String[] args) {
+        List<DatabaseConnectionPool> pools = DatabaseConnectionPool.getPools();
+        if (pools.isEmpty()) {
+            sender.sendMessage(ChatColor.YELLOW + "No plugins have an open database pool");
+            return;
+        }
+
+        boolean found = false;
+        for (DatabaseConnectionPool pool : pools) {
+            if (args.length >= 2 && !pool.getPlugin().getName().equalsIgnoreCase(args[1])) continue;
+            found = true;
+
+            if (args.length >= 3 && args[2].equalsIgnoreCase("reset")) {
+                pool.getMetrics().reset();
+                if (pool.getSlowQueryLog() != null) {
+                    pool.getSlowQueryLog().clear();
+                }
+                sender.sendMessage(ChatColor.GREEN + "Reset the database metrics of " + pool.getPlugin().getName());
+            } else if (args.length >= 3 && args[2].equalsIgnoreCase("slow")) {
+                sendSlowQueries(sender, pool);
+            } else {
+                sendMetrics(sender, pool);
+            }
+        }
+
+        if (!found) {
+            sender.sendMessage(ChatColor.RED + "No database pool found for plugin: " + args[1]);
+        }
+    }
+
+    private void sendMetrics(CommandSender sender, DatabaseConnectionPool pool) {
+        PoolMetrics metrics = pool.getMetrics();
+
+        sender.sendMessage(ChatColor.GOLD + pool.getPlugin().getName() + ChatColor.GRAY + " (" + pool.getType().name().toLowerCase() + ")" +
+                (pool.isAvailable() ? "" : ChatColor.RED + " circuit " + pool.getCircuitBreaker().getState().name().toLowerCase()));
+        sender.sendMessage(ChatColor.YELLOW + " Connections: " + ChatColor.WHITE +
+                metrics.getActiveConnections() + " active, " +
+                metrics.getIdleConnections() + " idle, " +
+                metrics.getTotalConnections() + "/" + pool.getMaximumPoolSize() + " open, " +
+                metrics.getWaitingThreads() + " waiting");
+        if (pool.hasReadReplica()) {
+            sender.sendMessage(ChatColor.YELLOW + " Replica: " + ChatColor.WHITE +
+                    metrics.getReplicaActiveConnections() + " active, " +
+                    metrics.getReplicaTotalConnections() + "/" + pool.getMaximumReadPoolSize() + " open");
+        }
+        sender.sendMessage(ChatColor.YELLOW + " Acquire: " + ChatColor.WHITE + metrics.getAcquireTimes().summary() +
+                " failures=" + metrics.getAcquireFailures());
+
+        List<String> queries = metrics.getSlowestQueries(MAX_QUERIES_SHOWN);
+        if (queries.isEmpty()) return;
+
+        sender.sendMessage(ChatColor.YELLOW + " Slowest queries (p99):");
+        for (String name : queries) {
+            LatencyHistogram histogram = metrics.getQueryTimes(name);
+            if (histogram == null) continue;
+            sender.sendMessage(ChatColor.GRAY + "  " + name + ": " + ChatColor.WHITE + histogram.summary());
+        }
+    }
+
+    private void sendSlowQueries(CommandSender sender, DatabaseConnectionPool pool) {
+        SlowQueryLog log = pool.getSlowQueryLog();
+        if (log == null) {
+            sender.sendMessage(ChatColor.RED + "The slow query log is disabled for " + pool.getPlugin().getName());
+            return;
+        }
+
+        List<SlowQueryLog.SlowQuery> queries = log.getWorst(MAX_SLOW_QUERIES_SHOWN);
+        sender.sendMessage(ChatColor.GOLD + pool.getPlugin().getName() + ChatColor.GRAY + " queries slower than " + log.getThresholdMillis() + "ms");
+        if (queries.isEmpty()) {
+            sender.sendMessage(ChatColor.GRAY + " None recorded");
+            return;
+        }
+
+        for (SlowQueryLog.SlowQuery query : queries) {
+            sender.sendMessage(ChatColor.YELLOW + " " + query.getMillis() + "ms " + ChatColor.WHITE + query.getFingerprint());
+            sender.sendMessage(ChatColor.GRAY + "   params: " + query.getParameterCount() + ", batch: " + query.getBatchSize() + ", caller: " + query.getCaller());
+        }
+    }
+
+    @Override
+    public List<String> getSubcommandArguments(CommandSender sender, String[] args) {
+        List<String> list = new ArrayList<>();
+
+        if (args.length == 2) {
+            List<String> names = new ArrayList<>();
+            for (DatabaseConnectionPool pool : DatabaseConnectionPool.getPools()) {
+                names.add(pool.getPlugin().getName());
+            }
+            StringUtil.copyPartialMatches(args[1], names, list);
+        } else if (args.length == 3) {
+            StringUtil.copyPartialMatches(args[2], actions, list);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.mittenmc.serverutils.command.generic;
+
+import com.github.mittenmc.serverutils.CommandManager;
+import com.github.mittenmc.serverutils.SubCommand;
+import com.github.mittenmc.serverutils.player.ContainerMetrics;
+import com.github.mittenmc.serverutils.player.OfflineProfileCache;
+import com.github.mittenmc.serverutils.player.PlayerDataContainer;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.util.StringUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Displays load and save statistics of every plugin's player data containers.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+public class PlayerDataCommand extends SubCommand {
+
+    private static final List<String> actions = List.of("reset");
+
+    public PlayerDataCommand(CommandManager commandManager) {
+        setName("playerdata");
+        setDescription("View player data load and save statistics");
+        setSyntax("/" + commandManager.getCommandDisplayName() + " playerdata [plugin] [reset]");
+        setColoredSyntax(ChatColor.YELLOW + getSyntax());
+        setPermission(commandManager.getPermissionPrefix() + getName().toLowerCase());
+    }
+
+    @Override
+    public void perform(CommandSender sender, String[] args) {
+        List<PlayerDataContainer<?>> containers = PlayerDataContainer.getContainers();
+        if (containers.isEmpty()) {
+            sender.sendMessage(ChatColor.YELLOW + "No plugins have a player data container");
+            return;
+        }
+
+        boolean found = false;
+        for (PlayerDataContainer<?> container : containers) {
+            if (args.length >= 2 && !container.getPlugin().getName().equalsIgnoreCase(args[1])) continue;
+            found = true;
+
+            if (args.length >= 3 && args[2].equalsIgnoreCase("reset")) {
+                container.getMetrics().reset();
+                container.getOfflineProfileCache().resetStats();
+                sender.sendMessage(ChatColor.GREEN + "Reset the player data metrics of " + getDisplayName(container));
+            } else {
+                sendMetrics(sender, container);
+            }
+        }
+
+        if (!found) {
+            sender.sendMessage(ChatColor.RED + "No player data container found for plugin: " + args[1]);
+        }
+    }
+
+    private void sendMetrics(CommandSender sender, PlayerDataContainer<?> container) {
+        ContainerMetrics metrics = container.getMetrics();
+        OfflineProfileCache<?> cache = container.getOfflineProfileCache();
+
+        sender.sendMessage(ChatColor.GOLD + getDisplayName(container));
+        sender.sendMessage(ChatColor.YELLOW + " Profiles: " + ChatColor.WHITE +
+                container.getOnlineProfileCount() + " online, " +
+                cache.size() + " offline, " +
+                String.format("%.1f%%", cache.getHitRate() * 100) + " offline hit rate, " +
+                cache.getEvictions() + " evicted");
+        if (cache.isCompactionEnabled() || cache.getDormantCount() > 0) {
+            sender.sendMessage(ChatColor.YELLOW + " Dormant: " + ChatColor.WHITE +
+                    cache.getDormantCount() + " profiles in " + cache.getDormantBytes() + " bytes, " +
+                    cache.getCompactions() + " compacted, " +
+                    cache.getRehydrations() + " rehydrated");
+        }
+        sender.sendMessage(ChatColor.YELLOW + " Queues: " + ChatColor.WHITE +
+                metrics.getLoadQueueDepth() + " loads, " +
+                metrics.getSaveQueueDepth() + " saves, " +
+                container.getAutoSaveQueueDepth() + " autosaves");
+        sender.sendMessage(ChatColor.YELLOW + " Load wait: " + ChatColor.WHITE + metrics.getLoadWaitTimes().summary() +
+                " max-concurrent=" + container.getMaxConcurrentLoads());
+
+        for (ContainerMetrics.Operation operation : ContainerMetrics.Operation.values()) {
+            sender.sendMessage(ChatColor.YELLOW + " " + operation.name().toLowerCase().replace('_', ' ') + ": " + ChatColor.WHITE +
+                    metrics.getTimes(operation).summary() +
+                    " in-flight=" + metrics.getInFlight(operation) +
+                    " failures=" + metrics.getFailures(operation));
+        }
+    }
+
+    private String getDisplayName(PlayerDataContainer<?> container) {
+        return container.getPlugin().getName() + ChatColor.GRAY + " (" + container.getClass().getSimpleName() + ")";
+    }
+
+    @Override
+    public List<String> getSubcommandArguments(CommandSender sender, String[] args) {
+        List<String> list = new ArrayList<>();
+
+        if (args.length == 2) {
+            List<String> names = new ArrayList<>();
+            for (PlayerDataContainer<?> container : PlayerDataContainer.getContainers()) {
+                if (!names.contains(container.getPlugin().getName())) names.add(container.getPlugin().getName());
+            }
+            StringUtil.copyPartialMatches(args[1], names, list);
+        } else if (args.length == 3) {
+            StringUtil.copyPartialMatches(args[2], actions, list);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,365 @@
+package com.github.mittenmc.serverutils.database;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A write-behind queue which flushes pending writes to the database as JDBC batches.<p>
+ * Writes are grouped by their SQL and each group is sent with a single {@link PreparedStatement#executeBatch()}.
+ * A flush happens when any group reaches the batch size or when the flush interval elapses.<p>
+ * Writes sharing the same SQL are executed in submission order. No ordering is guaranteed between different SQL.<p>
+ * When the pool has a {@link WriteJournal}, writes submitted with plain parameter values are journaled
+ * if their batch fails because the database is unreachable, and their futures complete once the journal is on disk.
+ * Other failures, like constraint violations, fail the futures instead.<p>
+ * Writes submitted with a {@link StatementBinder} cannot be journaled. They are sent straight to the database
+ * even while the journal has writes waiting to be replayed, so they are not ordered with journaled writes
+ * and may be overwritten by an older journaled write of the same row.<p>
+ * Writes submitted with a key, such as a player's UUID, pass it to {@link DatabaseConnectionPool#markWritten(UUID)}
+ * once their batch commits, so the key's reads with {@link DatabaseConnectionPool#getReadConnection(UUID)} see the write.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class BatchWriteQueue {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final Target target;
+    private final Logger logger;
+    private final String name;
+    private final int batchSize;
+    private final long flushInterval;
+
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private Map<String, List<PendingWrite>> pending;
+    private final Map<String, String> queryNames;
+    private ScheduledExecutorService executor;
+    private boolean closed;
+
+    /**
+     * Creates a new queue and registers it with the pool so it is drained when the pool closes.
+     * @param pool The pool to write to
+     * @param batchSize The number of writes of the same SQL which triggers a flush
+     * @param flushInterval The maximum time in milliseconds a write will wait before being flushed
+     */
+    BatchWriteQueue(DatabaseConnectionPool pool, int batchSize, long flushInterval) {
+        this(new PoolTarget(pool), pool.instance.getLogger(), pool.instance.getName(), batchSize, flushInterval);
+        pool.registerWriteQueue(this);
+    }
+
+    /**
+     * @param target The database to write to
+     * @param logger The logger of the owning plugin
+     * @param name The name used for the flush thread
+     * @param batchSize The number of writes of the same SQL which triggers a flush
+     * @param flushInterval The maximum time in milliseconds a write will wait before being flushed
+     */
+    BatchWriteQueue(Target target, Logger logger, String name, int batchSize, long flushInterval) {
+        this.target = target;
+        this.logger = logger;
+        this.name = name;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = Math.max(1, flushInterval);
+        pending = new LinkedHashMap<>();
+        queryNames = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Adds a write to the queue. Writes with a binder are never journaled and are not ordered with journaled writes.
+     * @param sql The MySQL statement to execute, translated to the pool's database type
+     * @param binder Sets the parameters of this write
+     * @return A future which completes once this write's batch is committed
+     */
+    public CompletableFuture<Void> submit(String sql, StatementBinder binder) {
+        return submit(target.getType().translate(sql), new PendingWrite(null, binder, null));
+    }
+
+    /**
+     * Adds a write whose parameters are set in order from the values.
+     * If the pool has a {@link WriteJournal}, a failed flush journals this write instead of failing it.
+     * Journaled writes are replayed at least once, so the SQL should be idempotent.
+     * @param sql The MySQL statement to execute, translated to the pool's database type
+     * @param params The parameters, which should only be null, booleans, numbers, strings or byte arrays
+     * @return A future which completes once this write is committed or journaled
+     */
+    public CompletableFuture<Void> submit(String sql, Object... params) {
+        return submit(null, sql, params);
+    }
+
+    /**
+     * Adds a write of a key's row whose parameters are set in order from the values.
+     * Once the batch commits, reads of the key are sent to the primary for the pool's sticky window.
+     * @param key The key being written, such as a player's UUID, or null
+     * @param sql The MySQL statement to execute, translated to the pool's database type
+     * @param params The parameters, which should only be null, booleans, numbers, strings or byte arrays
+     * @return A future which completes once this write is committed or journaled
+     */
+    public CompletableFuture<Void> submit(@Nullable UUID key, String sql, Object... params) {
+        return submit(target.getType().translate(sql), new PendingWrite(key, stmt -> ParameterBinder.positional().bind(stmt, params), params));
+    }
+
+    private CompletableFuture<Void> submit(String sql, PendingWrite write) {
+        boolean full;
+
+        synchronized (lock) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("This write queue has been closed"));
+            }
+            startExecutor();
+
+            List<PendingWrite> writes = pending.computeIfAbsent(sql, k -> new ArrayList<>());
+            writes.add(write);
+            full = writes.size() >= batchSize;
+        }
+
+        if (full) {
+            try {
+                executor.execute(this::flush);
+            } catch (RejectedExecutionException ignored) {
+                // The queue is closing and will flush this write itself
+            }
+        }
+        return write.future;
+    }
+
+    /**
+     * Adds a write of a registered query to the queue.
+     * Flush times are recorded in the pool's metrics under the query's name.
+     * @param query The query to execute
+     * @param param The value holding the parameters
+     * @return A future which completes once this write's batch is committed
+     * @param <P> The parameter type
+     */
+    public <P> CompletableFuture<Void> submit(NamedQuery<P> query, P param) {
+        return submit(null, query, param);
+    }
+
+    /**
+     * Adds a write of a key's row using a registered query.
+     * Once the batch commits, reads of the key are sent to the primary for the pool's sticky window.
+     * @param key The key being written, such as a player's UUID, or null
+     * @param query The query to execute
+     * @param param The value holding the parameters
+     * @return A future which completes once this write's batch is committed
+     * @param <P> The parameter type
+     */
+    public <P> CompletableFuture<Void> submit(@Nullable UUID key, NamedQuery<P> query, P param) {
+        queryNames.putIfAbsent(query.getSql(), query.getName());
+        return submit(query.getSql(), new PendingWrite(key, query.with(param), null));
+    }
+
+    /**
+     * @return The number of writes waiting to be flushed
+     */
+    public int size() {
+        synchronized (lock) {
+            int size = 0;
+            for (List<PendingWrite> writes : pending.values()) {
+                size += writes.size();
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Executes all pending writes on the calling thread.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<String, List<PendingWrite>> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) return;
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            }
+
+            for (Map.Entry<String, List<PendingWrite>> entry : batch.entrySet()) {
+                executeBatch(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new writes and flushes everything that is still pending.
+     * This blocks until the queue is empty.
+     */
+    void close() {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    logger.warning("Timed out waiting for the database write queue to finish its current flush");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Starts the flush timer on the first write so unused queues never create a thread.
+     * Must be called while holding the lock.
+     */
+    private void startExecutor() {
+        if (executor != null) return;
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-db-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void executeBatch(String sql, List<PendingWrite> writes) {
+        WriteJournal journal = target.getJournal();
+
+        // Writes must stay behind those journaled during an earlier failure, so they join the journal too
+        if (journal != null && journal.hasPending()) {
+            writes = journalWrites(journal, sql, writes);
+            journal.scheduleReplay();
+            if (writes.isEmpty()) return;
+        }
+
+        try (Connection conn = target.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (PendingWrite write : writes) {
+                    write.binder.bind(stmt);
+                    stmt.addBatch();
+                }
+                long start = System.nanoTime();
+                stmt.executeBatch();
+                conn.commit();
+                target.recordQuery(queryNames.getOrDefault(sql, sql), System.nanoTime() - start);
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException | RuntimeException e) {
+            List<PendingWrite> failed = journal == null || !WriteJournal.isTransient(e) ? writes : journalWrites(journal, sql, writes);
+            if (failed.isEmpty()) {
+                logger.warning("Failed to flush a batch of " + writes.size() + " writes. They were journaled for replay: " + sql);
+                return;
+            }
+
+            logger.log(Level.SEVERE, "Failed to flush a batch of " + failed.size() + " writes for: " + sql, e);
+            for (PendingWrite write : failed) {
+                write.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (PendingWrite write : writes) {
+            if (write.key != null) target.markWritten(write.key);
+            write.future.complete(null);
+        }
+    }
+
+    /**
+     * Moves writes with plain parameter values into the journal and completes them.
+     * @return The writes which could not be journaled
+     */
+    private List<PendingWrite> journalWrites(WriteJournal journal, String sql, List<PendingWrite> writes) {
+        List<PendingWrite> remaining = new ArrayList<>();
+        for (PendingWrite write : writes) {
+            if (write.params == null) {
+                remaining.add(write);
+                continue;
+            }
+
+            try {
+                journal.append(sql, write.params);
+                write.future.complete(null);
+            } catch (IOException | IllegalArgumentException e) {
+                logger.log(Level.SEVERE, "Failed to journal a database write", e);
+                remaining.add(write);
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * The database a queue writes to.
+     */
+    interface Target {
+        Connection getConnection() throws SQLException;
+
+        DatabaseType getType();
+
+        @Nullable
+        WriteJournal getJournal();
+
+        void recordQuery(String name, long nanos);
+
+        void markWritten(UUID key);
+    }
+
+    private record PoolTarget(DatabaseConnectionPool pool) implements Target {
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return pool.getConnection();
+        }
+
+        @Override
+        public DatabaseType getType() {
+            return pool.getType();
+        }
+
+        @Override
+        @Nullable
+        public WriteJournal getJournal() {
+            return pool.getJournal();
+        }
+
+        @Override
+        public void recordQuery(String name, long nanos) {
+            pool.getMetrics().recordQuery(name, nanos);
+        }
+
+        @Override
+        public void markWritten(UUID key) {
+            pool.markWritten(key);
+        }
+    }
+
+    private static class PendingWrite {
+        @Nullable private final UUID key;
+        private final StatementBinder binder;
+        @Nullable private final Object[] params;
+        private final CompletableFuture<Void> future;
+
+        private PendingWrite(@Nullable UUID key, StatementBinder binder, @Nullable Object[] params) {
+            this.key = key;
+            this.binder = binder;
+            this.params = params;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
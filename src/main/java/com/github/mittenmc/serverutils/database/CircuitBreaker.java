@@ -0,0 +1,148 @@
+package com.github.mittenmc.serverutils.database;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Stops requests to an unreachable database from blocking until they time out.<p>
+ * The breaker opens after a number of consecutive failures and rejects every request while open.
+ * Once the reset timeout has passed, a single probe request is allowed through (half-open).
+ * A successful probe closes the breaker, while a failed probe opens it again.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class CircuitBreaker {
+
+    public enum State {
+        /**
+         * Requests are allowed
+         */
+        CLOSED,
+        /**
+         * Requests are rejected
+         */
+        OPEN,
+        /**
+         * A single probe request is allowed
+         */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    @Getter private final long resetTimeoutMillis;
+    private final List<Consumer<State>> listeners;
+
+    @Getter private volatile State state;
+    @Getter private volatile int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    /**
+     * @param failureThreshold The number of consecutive failures which open the breaker. Use 0 to never open
+     * @param resetTimeoutMillis The time in milliseconds to wait before probing
+     */
+    public CircuitBreaker(int failureThreshold, long resetTimeoutMillis) {
+        this.failureThreshold = failureThreshold;
+        this.resetTimeoutMillis = resetTimeoutMillis;
+        listeners = new CopyOnWriteArrayList<>();
+        state = State.CLOSED;
+    }
+
+    /**
+     * Checks if a request may be made.
+     * Every permitted request must be followed by {@link #recordSuccess()} or {@link #recordFailure()},
+     * even if it fails with an unchecked exception. Otherwise a probe never finishes and the breaker stays half-open.
+     * Call them from a {@code finally} block.
+     * @return If the request is allowed
+     */
+    public boolean tryAcquire() {
+        State transition = null;
+        try {
+            synchronized (this) {
+                switch (state) {
+                    case CLOSED:
+                        return true;
+                    case OPEN:
+                        if (System.currentTimeMillis() - openedAt < resetTimeoutMillis) return false;
+                        transition = setState(State.HALF_OPEN);
+                        probeInFlight = true;
+                        return true;
+                    default:
+                        if (probeInFlight) return false;
+                        probeInFlight = true;
+                        return true;
+                }
+            }
+        } finally {
+            notifyListeners(transition);
+        }
+    }
+
+    /**
+     * Records a successful request. This closes the breaker.
+     */
+    public void recordSuccess() {
+        State transition;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            transition = setState(State.CLOSED);
+        }
+        notifyListeners(transition);
+    }
+
+    /**
+     * Records a failed request. This opens the breaker if the threshold is reached or if the request was a probe.
+     */
+    public void recordFailure() {
+        State transition = null;
+        synchronized (this) {
+            consecutiveFailures++;
+            probeInFlight = false;
+
+            if (failureThreshold > 0 && (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold)) {
+                openedAt = System.currentTimeMillis();
+                transition = setState(State.OPEN);
+            }
+        }
+        notifyListeners(transition);
+    }
+
+    /**
+     * @return If requests are currently allowed through
+     */
+    public synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Adds a listener which is called on the thread that caused the state to change.
+     * @param listener The listener accepting the new state
+     */
+    public void addListener(Consumer<State> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Must be called while synchronized.
+     * @return The new state if it changed or null
+     */
+    private State setState(State newState) {
+        if (state == newState) return null;
+        state = newState;
+        return newState;
+    }
+
+    private void notifyListeners(State transition) {
+        if (transition == null) return;
+
+        for (Consumer<State> listener : listeners) {
+            listener.accept(transition);
+        }
+    }
+}
@@ -1,25 +1,325 @@
 package com.github.mittenmc.serverutils.database;
 
+import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 /**
- * Links a database to a connection pool.
+ * Links a database to a connection pool.<p>
+ * Each database owns a {@link BatchWriteQueue} for writes which do not need to be committed immediately.<p>
+ * SQL should be declared once in the {@link QueryRegistry}, either in the constructor or in the plugin's
+ * resources/{@value QUERIES_FILE_NAME} file. All queries registered during plugin startup are pre-prepared
+ * on every pooled connection on the first server tick.<p>
+ * Large results should be read with {@link #openCursor(NamedQuery, Object, RowMapper)} or
+ * {@link #streamAsync(NamedQuery, Object, RowMapper, Consumer)} so only a chunk of rows is held in memory at once.
  * @author GavvyDizzle, Quagmire
- * @version 1.1.3
+ * @version 1.1.8
  * @since 1.1.3
  */
 @SuppressWarnings("unused")
 public class Database {
 
+    private static final String QUERIES_FILE_NAME = "queries.yml";
+
     private final JavaPlugin instance;
     protected final DatabaseConnectionPool pool;
+    protected final BatchWriteQueue writeQueue;
+    protected final QueryRegistry queries;
 
     public Database(DatabaseConnectionPool pool) {
         this.instance = pool.instance;
         this.pool = pool;
+        this.writeQueue = new BatchWriteQueue(pool, pool.writeBatchSize, pool.writeFlushInterval);
+        this.queries = new QueryRegistry(pool);
+        queries.load(QUERIES_FILE_NAME);
+
+        // Async tasks start on the first tick, after the subclass has registered its queries
+        if (pool.prewarmStatements) {
+            Bukkit.getScheduler().runTaskAsynchronously(instance, queries::prewarm);
+        }
+    }
+
+    /**
+     * Queues a write to be executed in a batch with other writes of the same SQL.
+     * Use this for upserts where the caller does not need to wait on the database, like saving on quit.
+     * Writes with a binder are never journaled, and they are not ordered with writes waiting in the pool's
+     * {@link WriteJournal}. Use {@link #queueWrite(String, Object...)} for rows which may also be journaled.
+     *
+     * @param sql    the SQL to execute
+     * @param binder sets the parameters of this write
+     * @return a future which completes once the write is committed
+     * @since 1.1.8
+     */
+    protected CompletableFuture<Void> queueWrite(String sql, StatementBinder binder) {
+        return writeQueue.submit(sql, binder);
+    }
+
+    /**
+     * Queues a write whose parameters are set in order from the values.
+     * If the pool has a {@link WriteJournal}, this write is journaled instead of lost when the database is unreachable.
+     * Journaled writes are replayed at least once, so a crash during replay can run this write twice.
+     * The SQL should be idempotent, such as an upsert of absolute values, never {@code balance = balance + ?}.
+     *
+     * @param sql    the SQL to execute
+     * @param params the parameters, which should only be null, booleans, numbers, strings or byte arrays
+     * @return a future which completes once the write is committed or journaled
+     * @since 1.1.8
+     */
+    protected CompletableFuture<Void> queueWrite(String sql, Object... params) {
+        return writeQueue.submit(sql, params);
+    }
+
+    /**
+     * Queues a write of a player's data whose parameters are set in order from the values.
+     * Once the write is committed, the player is passed to {@link DatabaseConnectionPool#markWritten(UUID)}
+     * so their next read with {@link DatabaseConnectionPool#getReadConnection(UUID)} sees it.
+     *
+     * @param uuid   the player whose data is written
+     * @param sql    the SQL to execute
+     * @param params the parameters, which should only be null, booleans, numbers, strings or byte arrays
+     * @return a future which completes once the write is committed or journaled
+     * @see #queueWrite(String, Object...)
+     * @since 1.1.8
+     */
+    protected CompletableFuture<Void> queueWrite(UUID uuid, String sql, Object... params) {
+        return writeQueue.submit(uuid, sql, params);
+    }
+
+    /**
+     * Stores a write in the pool's {@link WriteJournal} and replays it to the database in the background.
+     * The returned future completes as soon as the write is forced to local disk, which is much faster
+     * than waiting on the database. Use this for saves which must not be lost, like a player quitting.
+     * If the pool has no journal, this behaves like {@link #queueWrite(String, Object...)}.
+     * Journaled writes are replayed at least once, so a crash during replay can run this write twice.
+     * The SQL should be idempotent, such as an upsert of absolute values, never {@code balance = balance + ?}.
+     *
+     * @param sql    the SQL to execute
+     * @param params the parameters, which may only be null, booleans, numbers, strings or byte arrays
+     * @return a future which completes once the write is durable
+     * @since 1.1.8
+     */
+    protected CompletableFuture<Void> journalWrite(String sql, Object... params) {
+        return journalWrite((UUID) null, sql, params);
+    }
+
+    /**
+     * Stores a write of a player's data in the pool's {@link WriteJournal}, see {@link #journalWrite(String, Object...)}.
+     * The player is passed to {@link DatabaseConnectionPool#markWritten(UUID)} once the write is journaled,
+     * since it usually reaches the database within the sticky window.
+     *
+     * @param uuid   the player whose data is written, or null
+     * @param sql    the SQL to execute
+     * @param params the parameters, which may only be null, booleans, numbers, strings or byte arrays
+     * @return a future which completes once the write is durable
+     * @since 1.1.8
+     */
+    protected CompletableFuture<Void> journalWrite(@Nullable UUID uuid, String sql, Object... params) {
+        WriteJournal journal = pool.getJournal();
+        if (journal == null) return writeQueue.submit(uuid, sql, params);
+
+        try {
+            journal.append(pool.getType().translate(sql), params);
+        } catch (IOException | IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (uuid != null) pool.markWritten(uuid);
+        journal.scheduleReplay();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Queues a write of a registered query.
+     *
+     * @param query the query to execute
+     * @param param the value holding the parameters
+     * @param <P>   the parameter type
+     * @return a future which completes once the write is committed
+     * @see #queueWrite(String, StatementBinder)
+     * @since 1.1.8
+     */
+    protected <P> CompletableFuture<Void> queueWrite(NamedQuery<P> query, P param) {
+        return writeQueue.submit(query, param);
+    }
+
+    /**
+     * Queues a write of a player's data using a registered query.
+     * Once the write is committed, the player is passed to {@link DatabaseConnectionPool#markWritten(UUID)}.
+     *
+     * @param uuid  the player whose data is written
+     * @param query the query to execute
+     * @param param the value holding the parameters
+     * @param <P>   the parameter type
+     * @return a future which completes once the write is committed
+     * @see #queueWrite(UUID, String, Object...)
+     * @since 1.1.8
+     */
+    protected <P> CompletableFuture<Void> queueWrite(UUID uuid, NamedQuery<P> query, P param) {
+        return writeQueue.submit(uuid, query, param);
+    }
+
+    /**
+     * Executes a registered update on a new connection and records its execution time in the pool's metrics.
+     * This bypasses the pool's {@link WriteJournal}, so it is not ordered with journaled writes
+     * which are still waiting to be replayed.
+     *
+     * @param query the query to execute
+     * @param param the value holding the parameters
+     * @param <P>   the parameter type
+     * @return the number of affected rows
+     * @throws SQLException if the update failed
+     * @since 1.1.8
+     */
+    protected <P> int executeUpdate(NamedQuery<P> query, P param) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query.getSql())) {
+            query.bind(stmt, param);
+
+            long start = System.nanoTime();
+            try {
+                return stmt.executeUpdate();
+            } finally {
+                pool.getMetrics().recordQuery(query.getName(), System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Executes a registered query on a new connection and records its execution time in the pool's metrics.
+     *
+     * @param query  the query to execute
+     * @param param  the value holding the parameters
+     * @param mapper converts each row
+     * @param <P>    the parameter type
+     * @param <T>    the row type
+     * @return the mapped rows
+     * @throws SQLException if the query failed
+     * @since 1.1.8
+     */
+    protected <P, T> List<T> executeQuery(NamedQuery<P> query, P param, RowMapper<T> mapper) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query.getSql())) {
+            query.bind(stmt, param);
+
+            long start = System.nanoTime();
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                List<T> rows = new ArrayList<>();
+                while (resultSet.next()) {
+                    rows.add(mapper.map(resultSet));
+                }
+                return rows;
+            } finally {
+                pool.getMetrics().recordQuery(query.getName(), System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Opens a cursor over the results of a registered query using the pool's configured fetch size.
+     *
+     * @param query  the query to execute
+     * @param param  the value holding the parameters
+     * @param mapper converts each row
+     * @param <P>    the parameter type
+     * @param <T>    the row type
+     * @return the cursor, which must be closed
+     * @throws SQLException if the query failed
+     * @see #openCursor(NamedQuery, Object, RowMapper, int)
+     * @since 1.1.8
+     */
+    protected <P, T> QueryCursor<T> openCursor(NamedQuery<P> query, P param, RowMapper<T> mapper) throws SQLException {
+        return openCursor(query, param, mapper, pool.streamFetchSize);
+    }
+
+    /**
+     * Opens a forward-only, read-only cursor over the results of a registered query on a read connection.
+     * Rows are fetched from the database in chunks of the fetch size and mapped as the cursor advances.
+     * The execution time recorded in the pool's metrics lasts until the cursor is closed.<p>
+     * MySQL reads in chunks because of the {@code useCursorFetch} setting.
+     * A fetch size of {@link Integer#MIN_VALUE} makes MySQL stream row by row instead.
+     *
+     * @param query     the query to execute
+     * @param param     the value holding the parameters
+     * @param mapper    converts each row
+     * @param fetchSize the number of rows to fetch at a time
+     * @param <P>       the parameter type
+     * @param <T>       the row type
+     * @return the cursor, which must be closed
+     * @throws SQLException if the query failed
+     * @since 1.1.8
+     */
+    protected <P, T> QueryCursor<T> openCursor(NamedQuery<P> query, P param, RowMapper<T> mapper, int fetchSize) throws SQLException {
+        // The SQLite driver rejects negative fetch sizes and always steps through rows lazily
+        if (fetchSize < 0 && pool.getType() == DatabaseType.SQLITE) {
+            fetchSize = 0;
+        }
+
+        Connection conn = pool.getReadConnection();
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement(query.getSql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(fetchSize);
+            query.bind(stmt, param);
+
+            long start = System.nanoTime();
+            ResultSet resultSet = stmt.executeQuery();
+            return new QueryCursor<>(conn, stmt, resultSet, mapper,
+                    () -> pool.getMetrics().recordQuery(query.getName(), System.nanoTime() - start));
+        } catch (SQLException | RuntimeException e) {
+            try (conn) {
+                if (stmt != null) stmt.close();
+            } catch (SQLException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the results of a registered query to a consumer on the pool's stream executor.
+     * The consumer runs on the reading thread, so the next chunk of rows is only fetched once the consumer
+     * has handled the previous one. A slow consumer slows the read instead of filling up memory.
+     * Cancelling the returned future stops the stream at the next row.
+     *
+     * @param query    the query to execute
+     * @param param    the value holding the parameters
+     * @param mapper   converts each row
+     * @param consumer handles each row. This is not called on the main thread
+     * @param <P>      the parameter type
+     * @param <T>      the row type
+     * @return a future which completes with the number of rows read
+     * @since 1.1.8
+     */
+    protected <P, T> CompletableFuture<Long> streamAsync(NamedQuery<P> query, P param, RowMapper<T> mapper, Consumer<? super T> consumer) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        try {
+            pool.getStreamExecutor().execute(() -> {
+                try (QueryCursor<T> cursor = openCursor(query, param, mapper)) {
+                    while (!future.isDone() && cursor.hasNext()) {
+                        consumer.accept(cursor.next());
+                    }
+                    future.complete(cursor.getRowCount());
+                } catch (SQLException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The pool is closing
+            future.completeExceptionally(e);
+        }
+        return future;
     }
 
     /**
@@ -2,68 +2,241 @@ package com.github.mittenmc.serverutils.database;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.Getter;
+import org.bukkit.Bukkit;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
 
 /**
- * Creates a new HikariCP connection pool for a plugin's MySQL database.<p>
- * Attempts to read settings from {@value SETTINGS_FILE_NAME} in the plugin's data folder.<p>
- * Executes any SQL statements in the plugin's resources/{@value SETUP_FILE_NAME} file on initialization.
+ * Creates a new HikariCP connection pool for a plugin's MySQL or SQLite database.<p>
+ * Attempts to read settings from {@value SETTINGS_FILE_NAME} in the plugin's data folder.
+ * The {@code type} setting selects the {@link DatabaseType}.<p>
+ * Applies the plugin's schema migrations on initialization with a {@link SchemaMigrator}.
+ * This includes the legacy resources/{@value SETUP_FILE_NAME} file, which is only re-run when it changes.
+ * Statements are written for MySQL and translated with {@link DatabaseType#translate(String)}.
+ * SQLite uses the driver bundled with the server, see {@link DatabaseType#SQLITE}.<p>
+ * Any {@link BatchWriteQueue} created for this pool is drained when the pool is closed.
+ * With the {@code journal} setting enabled, writes which fail are kept in a {@link WriteJournal} until they can be replayed.<p>
+ * Large results can be read with a {@link QueryCursor}, fetching {@code stream-fetch-size} rows at a time.<p>
+ * Usage statistics are collected in {@link PoolMetrics} and can be logged periodically with the
+ * {@code metrics-log-interval} setting. All open pools are listed by {@link #getPools()}.<p>
+ * The {@code read-replica} setting adds a second pool which serves {@link #getReadConnection()}.
+ * Reads for a key written within the sticky window are sent to the primary instead (read-your-writes).
+ * The replica has its own circuit breaker, so reads go straight to the primary while the replica is down.
  * @author GavvyDizzle, Quagmire
- * @version 1.1.3
+ * @version 1.1.8
  * @since 1.1.3
  */
 @SuppressWarnings("unused")
 public class DatabaseConnectionPool {
 
     private static final String SETTINGS_FILE_NAME = "database_settings.yml";
-    private static final String SETUP_FILE_NAME = "dbsetup.sql";
+    private static final List<DatabaseConnectionPool> pools = new CopyOnWriteArrayList<>();
+    static final String SETUP_FILE_NAME = "dbsetup.sql";
+    private static final String JOURNAL_FILE_NAME = "database_journal.dat";
+    private static final int RECENT_WRITES_CLEANUP_SIZE = 1000;
 
     protected final JavaPlugin instance;
+    @Getter private final DatabaseType type;
     private final HikariDataSource dataSource;
+    @Nullable private final HikariDataSource readDataSource;
+    private final Map<UUID, Long> recentWrites;
+    private final long stickyWindow;
+    @Getter private final PoolMetrics metrics;
+    @Getter @Nullable private final SlowQueryLog slowQueryLog;
+    @Getter private final CircuitBreaker circuitBreaker;
+    @Getter @Nullable private final CircuitBreaker replicaCircuitBreaker;
+    @Getter @Nullable private final WriteJournal journal;
+    private final List<BatchWriteQueue> writeQueues;
+    private BukkitTask metricsLogTask;
+    private ExecutorService streamExecutor;
+    final int writeBatchSize;
+    final long writeFlushInterval;
+    final boolean prewarmStatements;
+    final Object prewarmLock = new Object();
+    final int streamFetchSize;
 
     public DatabaseConnectionPool(JavaPlugin instance) {
         this.instance = instance;
 
         FileConfiguration config = getSettingsFile();
 
+        DatabaseType configType = DatabaseType.fromString(config.getString("type"));
+        if (configType == null) {
+            instance.getLogger().warning("Invalid database type '" + config.getString("type") + "' in " + SETTINGS_FILE_NAME + ". Defaulting to MySQL");
+            configType = DatabaseType.MYSQL;
+        }
+        type = configType;
+
+        int timeout = config.getInt("timeout", 30000);
+        writeBatchSize = config.getInt("write-queue.batch-size", 100);
+        writeFlushInterval = config.getLong("write-queue.flush-interval", 1000);
+        writeQueues = new CopyOnWriteArrayList<>();
+        prewarmStatements = config.getBoolean("prewarm-statements", true);
+        streamFetchSize = config.getInt("stream-fetch-size", 1000);
+        metrics = new PoolMetrics(this);
+        slowQueryLog = config.getBoolean("slow-query-log.enabled", false) ?
+                new SlowQueryLog(this, config.getLong("slow-query-log.threshold", 250), config.getInt("slow-query-log.size", 50)) : null;
+
+        circuitBreaker = new CircuitBreaker(config.getInt("circuit-breaker.failure-threshold", 3),
+                config.getLong("circuit-breaker.reset-timeout", 5000));
+        circuitBreaker.addListener(this::onCircuitStateChange);
+
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setInitializationFailTimeout(0);
+        hikariConfig.setConnectionTimeout(timeout);
+
+        if (type == DatabaseType.SQLITE) {
+            configureSQLite(hikariConfig, config);
+        } else {
+            configureMySQL(hikariConfig, config);
+        }
+
+        this.dataSource = new HikariDataSource(hikariConfig);
+        recentWrites = new ConcurrentHashMap<>();
+        stickyWindow = config.getLong("read-replica.sticky-window", 5000);
+        readDataSource = config.getBoolean("read-replica.enabled", false) ? createReadDataSource(config, timeout) : null;
+        if (readDataSource != null) {
+            replicaCircuitBreaker = new CircuitBreaker(config.getInt("circuit-breaker.failure-threshold", 3),
+                    config.getLong("circuit-breaker.reset-timeout", 5000));
+            replicaCircuitBreaker.addListener(this::onReplicaCircuitStateChange);
+        } else {
+            replicaCircuitBreaker = null;
+        }
+        journal = config.getBoolean("journal.enabled", false) ? openJournal(config.getString("journal.file", JOURNAL_FILE_NAME)) : null;
+        createTables();
+
+        if (journal != null && journal.hasPending()) {
+            journal.scheduleReplay();
+        }
+
+        pools.add(this);
+        long logInterval = config.getLong("metrics-log-interval", 0) * 20;
+        if (logInterval > 0) {
+            metricsLogTask = Bukkit.getScheduler().runTaskTimerAsynchronously(instance,
+                    () -> instance.getLogger().info("Database pool: " + metrics.summary()), logInterval, logInterval);
+        }
+    }
+
+    /**
+     * Points the pool at a remote MySQL server.
+     * @param hikariConfig The pool config
+     * @param config The settings file
+     */
+    private void configureMySQL(HikariConfig hikariConfig, FileConfiguration config) {
         String host = config.getString("host");
         int port = config.getInt("port");
         String databaseName = config.getString("database");
         String username = config.getString("username");
         String password = config.getString("password");
         int poolSize = config.getInt("pool-size");
-        int timeout = config.getInt("timeout", 30000);
 
-        HikariConfig hikariConfig = new HikariConfig();
-        hikariConfig.setJdbcUrl(String.format("jdbc:mysql://%s:%d/%s", host, port, databaseName)); // Only supports MySQL
+        hikariConfig.setJdbcUrl(String.format("jdbc:mysql://%s:%d/%s", host, port, databaseName));
         hikariConfig.setUsername(username);
         hikariConfig.setPassword(password);
-        hikariConfig.setInitializationFailTimeout(0);
         hikariConfig.setMaximumPoolSize(poolSize);
-        hikariConfig.setConnectionTimeout(timeout);
 
         // Read in all values from the settings section.
         // All keys are assumed to be valid settings.
-        ConfigurationSection settings = config.getConfigurationSection("settings");
-        if (settings != null) {
-            for (String key : settings.getKeys(false)) {
-                Object value = settings.get(key);
-                hikariConfig.addDataSourceProperty(key, value);
-            }
+        addDataSourceProperties(hikariConfig, config.getConfigurationSection("settings"));
+    }
+
+    /**
+     * Points the pool at a SQLite file in the plugin's data folder.
+     * SQLite only allows one writer at a time, so the pool is limited to a single connection.
+     * Additional connections would only wait on the database lock.
+     * @param hikariConfig The pool config
+     * @param config The settings file
+     */
+    private void configureSQLite(HikariConfig hikariConfig, FileConfiguration config) {
+        File file = new File(instance.getDataFolder(), config.getString("file", "database.db"));
+
+        hikariConfig.setJdbcUrl("jdbc:sqlite:" + file.getAbsolutePath());
+        hikariConfig.setMaximumPoolSize(1);
+
+        // The SQLite driver applies these as PRAGMAs when a connection is opened
+        addDataSourceProperties(hikariConfig, config.getConfigurationSection("sqlite-settings"));
+    }
+
+    /**
+     * Creates the read-only pool of the {@code read-replica} section.
+     * For MySQL this points at the replica server and shares the primary's driver settings.
+     * For SQLite the replica is the same file. In WAL mode, readers do not block the single writer connection.
+     * @param config The settings file
+     * @param timeout The connection timeout
+     * @return The read pool
+     */
+    private HikariDataSource createReadDataSource(FileConfiguration config, int timeout) {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setInitializationFailTimeout(0);
+        hikariConfig.setConnectionTimeout(timeout);
+        hikariConfig.setPoolName(instance.getName() + "-replica");
+        hikariConfig.setMaximumPoolSize(config.getInt("read-replica.pool-size", 5));
+
+        if (type == DatabaseType.SQLITE) {
+            // The SQLite driver does not allow the read-only flag to change after opening
+            File file = new File(instance.getDataFolder(), config.getString("file", "database.db"));
+            hikariConfig.setJdbcUrl("jdbc:sqlite:" + file.getAbsolutePath());
+            addDataSourceProperties(hikariConfig, config.getConfigurationSection("sqlite-settings"));
+        } else {
+            hikariConfig.setJdbcUrl(String.format("jdbc:mysql://%s:%d/%s", config.getString("read-replica.host"),
+                    config.getInt("read-replica.port"), config.getString("read-replica.database")));
+            hikariConfig.setUsername(config.getString("read-replica.username"));
+            hikariConfig.setPassword(config.getString("read-replica.password"));
+            hikariConfig.setReadOnly(true);
+            addDataSourceProperties(hikariConfig, config.getConfigurationSection("settings"));
         }
+        return new HikariDataSource(hikariConfig);
+    }
 
-        this.dataSource = new HikariDataSource(hikariConfig);
-        createTables();
+    /**
+     * Adds every key of the section as a data source property.
+     * @param hikariConfig The pool config
+     * @param settings The section or null
+     */
+    private void addDataSourceProperties(HikariConfig hikariConfig, @Nullable ConfigurationSection settings) {
+        if (settings == null) return;
+
+        for (String key : settings.getKeys(false)) {
+            Object value = settings.get(key);
+            hikariConfig.addDataSourceProperty(key, value);
+        }
+    }
+
+    /**
+     * Opens the write journal in the plugin's data folder.
+     * @param fileName The name of the journal file
+     * @return The journal or null if it could not be opened
+     */
+    @Nullable
+    private WriteJournal openJournal(String fileName) {
+        try {
+            return new WriteJournal(this, new File(instance.getDataFolder(), fileName));
+        } catch (IOException e) {
+            instance.getLogger().log(Level.SEVERE, "Failed to open the database journal. Failed writes will not be journaled", e);
+            return null;
+        }
     }
 
     /**
@@ -103,6 +276,10 @@ public class DatabaseConnectionPool {
         // The version id currently is not in use. Feel free to use it if you need to edit the config settings
         section.addDefault("version", 1);
 
+        // Either mysql or sqlite
+        section.addDefault("type", "mysql");
+        section.addDefault("file", "database.db");
+
         section.addDefault("host", "localhost");
         section.addDefault("port", 3306);
         section.addDefault("database", "database");
@@ -110,6 +287,34 @@ public class DatabaseConnectionPool {
         section.addDefault("password", "password");
         section.addDefault("pool-size", 10);
         section.addDefault("timeout", 10000);
+        section.addDefault("write-queue.batch-size", 100);
+        section.addDefault("write-queue.flush-interval", 1000);
+        section.addDefault("prewarm-statements", true);
+        // The number of rows fetched at a time by streaming queries
+        section.addDefault("stream-fetch-size", 1000);
+        // How often to log pool metrics in seconds. Use 0 to disable
+        section.addDefault("metrics-log-interval", 0);
+        // Rejects connection requests immediately after this many consecutive failures. Use 0 to disable
+        // The reset timeout is the time in milliseconds before a probe is attempted
+        section.addDefault("circuit-breaker.failure-threshold", 3);
+        section.addDefault("circuit-breaker.reset-timeout", 5000);
+        // Stores writes which failed to reach the database on disk and replays them once it is available
+        section.addDefault("journal.enabled", false);
+        section.addDefault("journal.file", JOURNAL_FILE_NAME);
+        // Logs statements slower than the threshold in milliseconds. Size is the number of entries kept for /serverutils db
+        section.addDefault("slow-query-log.enabled", false);
+        section.addDefault("slow-query-log.threshold", 250);
+        section.addDefault("slow-query-log.size", 50);
+        // A second server used for reads. With sqlite, the replica opens extra read connections to the same file
+        // Reads of a key are sent to the primary for sticky-window milliseconds after it is written
+        section.addDefault("read-replica.enabled", false);
+        section.addDefault("read-replica.host", "localhost");
+        section.addDefault("read-replica.port", 3306);
+        section.addDefault("read-replica.database", "database");
+        section.addDefault("read-replica.username", "root");
+        section.addDefault("read-replica.password", "password");
+        section.addDefault("read-replica.pool-size", 5);
+        section.addDefault("read-replica.sticky-window", 5000);
 
         section.addDefault("settings.cachePrepStmts", true);
         section.addDefault("settings.prepStmtCacheSize", 250);
@@ -121,15 +326,212 @@ public class DatabaseConnectionPool {
         section.addDefault("settings.cacheServerConfiguration", true);
         section.addDefault("settings.elideSetAutoCommits", true);
         section.addDefault("settings.maintainTimeStats", false);
+        // Only affects statements with a fetch size, which lets streaming queries read in chunks
+        section.addDefault("settings.useCursorFetch", true);
+
+        section.addDefault("sqlite-settings.journal_mode", "WAL");
+        section.addDefault("sqlite-settings.synchronous", "NORMAL");
+        section.addDefault("sqlite-settings.mmap_size", 268435456);
+        section.addDefault("sqlite-settings.busy_timeout", 10000);
     }
 
     /**
-     * Creates a connection to this database
+     * Creates a connection to this database.
+     * When the slow query log is enabled, statements created by the connection are timed.
      * @return A connection
+     * @throws SQLTransientConnectionException If the circuit breaker is open
      * @throws SQLException The error(s)
      */
     public Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+        if (!circuitBreaker.tryAcquire()) {
+            metrics.recordAcquireFailure();
+            throw new SQLTransientConnectionException("The database is unavailable. Connection rejected by the circuit breaker");
+        }
+
+        long start = System.nanoTime();
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+        } finally {
+            // Any exception, not only an SQLException, must end a probe or the breaker stays half-open forever
+            if (connection == null) {
+                circuitBreaker.recordFailure();
+                metrics.recordAcquireFailure();
+            }
+        }
+
+        circuitBreaker.recordSuccess();
+        metrics.recordAcquire(System.nanoTime() - start);
+        return slowQueryLog == null ? connection : SlowQueryProxy.wrap(connection, slowQueryLog);
+    }
+
+    /**
+     * Creates a connection to the primary database.
+     * This is the same as {@link #getConnection()}. Use it to make the intent of a write clear.
+     * @return A connection
+     * @throws SQLException The error(s)
+     */
+    public Connection getWriteConnection() throws SQLException {
+        return getConnection();
+    }
+
+    /**
+     * Creates a connection for reading.
+     * Uses the read replica when one is configured and falls back to the primary if the replica cannot be reached.
+     * While the replica's circuit breaker is open, reads go to the primary without waiting for the replica to time out.
+     * The replica may lag behind the primary. Use {@link #getReadConnection(UUID)} when reading data that was just written.
+     * @return A connection which should only be used for reads
+     * @throws SQLException The error(s)
+     */
+    public Connection getReadConnection() throws SQLException {
+        if (readDataSource == null || replicaCircuitBreaker == null || !replicaCircuitBreaker.tryAcquire()) return getConnection();
+
+        Connection connection;
+        try {
+            connection = readDataSource.getConnection();
+        } catch (SQLException | RuntimeException e) {
+            replicaCircuitBreaker.recordFailure();
+            instance.getLogger().log(Level.WARNING, "Failed to connect to the read replica. Reading from the primary database", e);
+            return getConnection();
+        }
+
+        replicaCircuitBreaker.recordSuccess();
+        return slowQueryLog == null ? connection : SlowQueryProxy.wrap(connection, slowQueryLog);
+    }
+
+    /**
+     * Creates a connection for reading the data of a key, such as a player's profile.
+     * If the key was passed to {@link #markWritten(UUID)} within the sticky window, the primary is used
+     * so the read cannot miss a write which has not reached the replica yet.
+     * This only works if every write of the key calls {@link #markWritten(UUID)}. Writes made with a UUID through
+     * {@link Database} and saves of player data containers do so, other writes must call it themselves.
+     * @param key The key being read
+     * @return A connection which should only be used for reads
+     * @throws SQLException The error(s)
+     */
+    public Connection getReadConnection(UUID key) throws SQLException {
+        if (readDataSource == null) return getConnection();
+
+        Long expiry = recentWrites.get(key);
+        if (expiry != null) {
+            if (expiry > System.currentTimeMillis()) return getConnection();
+            recentWrites.remove(key, expiry);
+        }
+        return getReadConnection();
+    }
+
+    /**
+     * Marks the data of a key as written.
+     * Reads made with {@link #getReadConnection(UUID)} are sent to the primary for the duration of the sticky window.<p>
+     * Writes queued or journaled with a player's UUID, such as {@link Database#queueWrite(UUID, String, Object...)},
+     * call this on their own, as do player data containers given this pool once a save succeeds.
+     * Other writes of a key which is later read with {@link #getReadConnection(UUID)} must call this once committed.
+     * @param key The key which was written
+     */
+    public void markWritten(UUID key) {
+        if (readDataSource == null) return;
+
+        long now = System.currentTimeMillis();
+        recentWrites.put(key, now + stickyWindow);
+        if (recentWrites.size() > RECENT_WRITES_CLEANUP_SIZE) {
+            recentWrites.values().removeIf(expiry -> expiry <= now);
+        }
+    }
+
+    /**
+     * @return If a read replica is configured
+     */
+    public boolean hasReadReplica() {
+        return readDataSource != null;
+    }
+
+    /**
+     * Connections are requested immediately only while the circuit breaker is closed.
+     * Callers should degrade, for example by skipping a load, instead of requesting a connection while unavailable.
+     * @return If the database is currently considered reachable
+     */
+    public boolean isAvailable() {
+        return circuitBreaker.isClosed();
+    }
+
+    /**
+     * Logs circuit breaker changes and schedules a probe whenever it opens.
+     * The probe keeps the breaker moving towards closed even if no other requests are made.
+     */
+    private void onCircuitStateChange(CircuitBreaker.State state) {
+        switch (state) {
+            case OPEN -> {
+                instance.getLogger().warning("Database connection failed " + circuitBreaker.getConsecutiveFailures() +
+                        " times in a row. Rejecting requests for " + circuitBreaker.getResetTimeoutMillis() + "ms");
+                if (instance.isEnabled()) {
+                    Bukkit.getScheduler().runTaskLaterAsynchronously(instance, this::testConnection,
+                            circuitBreaker.getResetTimeoutMillis() / 50 + 1);
+                }
+            }
+            case CLOSED -> {
+                instance.getLogger().info("Database connection restored");
+                if (journal != null && journal.hasPending()) {
+                    journal.scheduleReplay();
+                }
+            }
+            default -> {}
+        }
+    }
+
+    /**
+     * Logs replica circuit breaker changes. Reads fall back to the primary while it is open.
+     */
+    private void onReplicaCircuitStateChange(CircuitBreaker.State state) {
+        switch (state) {
+            case OPEN -> instance.getLogger().warning("Read replica connection failed " + replicaCircuitBreaker.getConsecutiveFailures() +
+                    " times in a row. Reading from the primary database for " + replicaCircuitBreaker.getResetTimeoutMillis() + "ms");
+            case CLOSED -> instance.getLogger().info("Read replica connection restored");
+            default -> {}
+        }
+    }
+
+    /**
+     * @return Hikari's pool statistics or null if the pool has not started
+     */
+    @Nullable
+    HikariPoolMXBean getPoolBean() {
+        return dataSource.getHikariPoolMXBean();
+    }
+
+    /**
+     * @return Hikari's read replica pool statistics or null if there is no replica or it has not started
+     */
+    @Nullable
+    HikariPoolMXBean getReadPoolBean() {
+        return readDataSource == null ? null : readDataSource.getHikariPoolMXBean();
+    }
+
+    /**
+     * @return The plugin which owns this pool
+     */
+    public JavaPlugin getPlugin() {
+        return instance;
+    }
+
+    /**
+     * @return An unmodifiable view of all open pools of every plugin
+     */
+    public static List<DatabaseConnectionPool> getPools() {
+        return Collections.unmodifiableList(pools);
+    }
+
+    /**
+     * @return The maximum number of connections this pool will open
+     */
+    public int getMaximumPoolSize() {
+        return dataSource.getMaximumPoolSize();
+    }
+
+    /**
+     * @return The maximum number of connections the read replica pool will open or 0 if there is no replica
+     */
+    public int getMaximumReadPoolSize() {
+        return readDataSource == null ? 0 : readDataSource.getMaximumPoolSize();
     }
 
     /**
@@ -145,44 +547,75 @@ public class DatabaseConnectionPool {
     }
 
     /**
-     * Frees up any remaining database resources
+     * The executor is created on first use and has one thread per connection which can serve reads.
+     * Streams hold their connection for their whole duration, so more threads would only wait on the pool.
+     * @return The executor which runs streaming queries
+     */
+    synchronized ExecutorService getStreamExecutor() {
+        if (streamExecutor == null) {
+            int threads = Math.max(1, readDataSource == null ? getMaximumPoolSize() : getMaximumReadPoolSize());
+            AtomicInteger count = new AtomicInteger();
+            streamExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, instance.getName() + "-db-stream-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return streamExecutor;
+    }
+
+    /**
+     * Registers a write queue to be drained when this pool closes.
+     * @param writeQueue The write queue
+     */
+    void registerWriteQueue(BatchWriteQueue writeQueue) {
+        writeQueues.add(writeQueue);
+    }
+
+    /**
+     * Frees up any remaining database resources.
+     * All pending writes of this pool's write queues are flushed before the connections are closed.
+     * Journaled writes get one last replay attempt and are otherwise kept on disk for the next start.
      */
     public void close() {
+        pools.remove(this);
+        if (metricsLogTask != null) {
+            metricsLogTask.cancel();
+        }
+
+        for (BatchWriteQueue writeQueue : writeQueues) {
+            writeQueue.close();
+        }
+        writeQueues.clear();
+
+        synchronized (this) {
+            if (streamExecutor != null) {
+                streamExecutor.shutdownNow();
+            }
+        }
+
+        if (journal != null) {
+            if (journal.hasPending()) {
+                journal.replay();
+            }
+            journal.close();
+        }
+
+        if (readDataSource != null && !readDataSource.isClosed()) {
+            readDataSource.close();
+        }
         if (dataSource != null && !dataSource.isClosed()) {
             dataSource.close();
         }
     }
 
     /**
-     * Executes any SQL statements in the plugin's resources/{@value SETUP_FILE_NAME} file on initialization.
+     * Brings the database schema up to date with the plugin's migrations.
      * This is intended to create or modify tables in the database.
+     * @see SchemaMigrator
      */
     private void createTables() {
-        // Read setup file to create new table
-        String setup;
-        try (InputStream in = instance.getResource(SETUP_FILE_NAME)) {
-            assert in != null;
-            setup = new BufferedReader(new InputStreamReader(in)).lines().collect(Collectors.joining("\n"));
-        } catch (IOException e) {
-            instance.getLogger().log(Level.SEVERE, "Failed to read database setup file.", e);
-            instance.getServer().getPluginManager().disablePlugin(instance);
-            return;
-        }
-
-        String[] queries = setup.split(";");
-        try (Connection conn = getConnection()) {
-            conn.setAutoCommit(false);
-
-            // execute each query to the database.
-            for (String query : queries) {
-                if (query.trim().isEmpty()) continue;
-                try (PreparedStatement stmt = conn.prepareStatement(query)) {
-                    stmt.execute();
-                }
-            }
-            conn.commit();
-        } catch (SQLException e) {
-            instance.getLogger().log(Level.SEVERE, "Failed to while executing database setup file.", e);
+        if (!new SchemaMigrator(this).migrate()) {
             instance.getServer().getPluginManager().disablePlugin(instance);
         }
     }
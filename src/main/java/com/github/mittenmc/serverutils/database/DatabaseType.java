@@ -0,0 +1,88 @@
+package com.github.mittenmc.serverutils.database;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The database engines supported by {@link DatabaseConnectionPool}.<p>
+ * Each type can translate MySQL flavored SQL into its own dialect so a single setup file works for all engines.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+public enum DatabaseType {
+
+    /**
+     * A remote MySQL or MariaDB server.
+     */
+    MYSQL {
+        @Override
+        public String translate(String sql) {
+            return sql;
+        }
+    },
+
+    /**
+     * An embedded SQLite database file in the plugin's data folder.
+     * This relies on the SQLite JDBC driver ({@code org.sqlite.JDBC}) bundled with the server, so ServerUtils does not
+     * declare or shade it. Upserts are translated to a target-less {@code ON CONFLICT DO UPDATE}, which needs SQLite 3.35
+     * or newer. The driver bundled since Minecraft 1.18 is new enough.
+     */
+    SQLITE {
+        @Override
+        public String translate(String sql) {
+            sql = AUTO_INCREMENT_COLUMN.matcher(sql).replaceAll("$1 INTEGER$2$3");
+            sql = TABLE_OPTIONS.matcher(sql).replaceAll(")");
+            sql = UNSIGNED.matcher(sql).replaceAll("");
+            sql = ON_UPDATE.matcher(sql).replaceAll("");
+            sql = INSERT_IGNORE.matcher(sql).replaceAll("INSERT OR IGNORE");
+
+            Matcher upsert = ON_DUPLICATE_KEY_UPDATE.matcher(sql);
+            if (upsert.find()) {
+                // VALUES(col) refers to the row being inserted, which SQLite calls excluded
+                String assignments = VALUES_FUNCTION.matcher(sql.substring(upsert.end())).replaceAll("excluded.$1");
+                sql = sql.substring(0, upsert.start()) + " ON CONFLICT DO UPDATE SET " + assignments;
+            }
+            return sql;
+        }
+    };
+
+    // Integer column declared with AUTO_INCREMENT. SQLite auto-assigns an INTEGER PRIMARY KEY instead.
+    private static final Pattern AUTO_INCREMENT_COLUMN = Pattern.compile(
+            "(`?\\w+`?)\\s+(?:TINY|SMALL|MEDIUM|BIG)?INT(?:EGER)?(?:\\(\\d+\\))?(?:\\s+UNSIGNED)?([^,]*?)\\s*\\bAUTO_INCREMENT\\b([^,=]*)",
+            Pattern.CASE_INSENSITIVE);
+    // Table options such as ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 after the closing parenthesis
+    private static final Pattern TABLE_OPTIONS = Pattern.compile(
+            "\\)\\s*(?:(?:ENGINE|(?:DEFAULT\\s+)?(?:CHARSET|CHARACTER\\s+SET)|COLLATE|AUTO_INCREMENT|ROW_FORMAT)\\s*=?\\s*\\w+\\s*)+$",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern UNSIGNED = Pattern.compile("\\s+UNSIGNED\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ON_UPDATE = Pattern.compile("\\s+ON\\s+UPDATE\\s+CURRENT_TIMESTAMP(?:\\(\\))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INSERT_IGNORE = Pattern.compile("\\bINSERT\\s+IGNORE\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ON_DUPLICATE_KEY_UPDATE = Pattern.compile("\\s+ON\\s+DUPLICATE\\s+KEY\\s+UPDATE\\s+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern VALUES_FUNCTION = Pattern.compile("\\bVALUES\\s*\\(\\s*(`?\\w+`?)\\s*\\)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Rewrites a MySQL statement into this type's dialect.
+     * Only table definitions, simple inserts and {@code ON DUPLICATE KEY UPDATE} upserts are handled.
+     * Anything else is returned unchanged.
+     * @param sql The MySQL statement
+     * @return The statement for this database type
+     */
+    public abstract String translate(String sql);
+
+    /**
+     * @param name The name of the type, ignoring case
+     * @return The matching type or null if none match
+     */
+    @Nullable
+    public static DatabaseType fromString(@Nullable String name) {
+        if (name == null) return null;
+
+        for (DatabaseType type : values()) {
+            if (type.name().equalsIgnoreCase(name.trim())) return type;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.mittenmc.serverutils.database;
+
+import lombok.Getter;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A SQL statement registered once by name along with how its parameters are bound.
+ * @param <P> The parameter type
+ * @see QueryRegistry
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class NamedQuery<P> {
+
+    @Getter private final String name, sql;
+    private final ParameterBinder<P> binder;
+
+    NamedQuery(String name, String sql, ParameterBinder<P> binder) {
+        this.name = name;
+        this.sql = sql;
+        this.binder = binder;
+    }
+
+    /**
+     * Binds the parameters to a statement prepared from this query.
+     * @param stmt The statement
+     * @param param The value holding the parameters
+     * @throws SQLException If a parameter could not be set
+     */
+    public void bind(PreparedStatement stmt, P param) throws SQLException {
+        binder.bind(stmt, param);
+    }
+
+    /**
+     * @param param The value holding the parameters
+     * @return A binder for a single execution of this query with the value
+     */
+    public StatementBinder with(P param) {
+        return stmt -> binder.bind(stmt, param);
+    }
+}
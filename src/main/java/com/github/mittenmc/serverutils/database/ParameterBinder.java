@@ -0,0 +1,34 @@
+package com.github.mittenmc.serverutils.database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Sets the parameters of a {@link PreparedStatement} from a typed value.
+ * @param <P> The parameter type
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@FunctionalInterface
+public interface ParameterBinder<P> {
+
+    /**
+     * Binds the value to the statement.
+     * @param stmt The statement to bind to
+     * @param param The value holding the parameters
+     * @throws SQLException If a parameter could not be set
+     */
+    void bind(PreparedStatement stmt, P param) throws SQLException;
+
+    /**
+     * @return A binder which sets each array element as the parameter at the same position
+     */
+    static ParameterBinder<Object[]> positional() {
+        return (stmt, params) -> {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+        };
+    }
+}
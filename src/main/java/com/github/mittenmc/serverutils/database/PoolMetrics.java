@@ -0,0 +1,159 @@
+package com.github.mittenmc.serverutils.database;
+
+import com.github.mittenmc.serverutils.utils.LatencyHistogram;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.Getter;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects usage statistics of a {@link DatabaseConnectionPool}.<p>
+ * Connection counts are read live from Hikari. Connection acquire times and query execution times
+ * are recorded as {@link LatencyHistogram}s.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class PoolMetrics {
+
+    private final DatabaseConnectionPool pool;
+    @Getter private final LatencyHistogram acquireTimes;
+    private final LongAdder acquireFailures;
+    private final Map<String, LatencyHistogram> queryTimes;
+
+    PoolMetrics(DatabaseConnectionPool pool) {
+        this.pool = pool;
+        acquireTimes = new LatencyHistogram();
+        acquireFailures = new LongAdder();
+        queryTimes = new ConcurrentHashMap<>();
+    }
+
+    void recordAcquire(long nanos) {
+        acquireTimes.record(nanos);
+    }
+
+    void recordAcquireFailure() {
+        acquireFailures.increment();
+    }
+
+    /**
+     * Records the execution time of a query.
+     * @param name The name of the query
+     * @param nanos The execution time in nanoseconds
+     */
+    public void recordQuery(String name, long nanos) {
+        queryTimes.computeIfAbsent(name, k -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * @return The number of connections in use
+     */
+    public int getActiveConnections() {
+        HikariPoolMXBean bean = pool.getPoolBean();
+        return bean == null ? 0 : bean.getActiveConnections();
+    }
+
+    /**
+     * @return The number of connections waiting in the pool
+     */
+    public int getIdleConnections() {
+        HikariPoolMXBean bean = pool.getPoolBean();
+        return bean == null ? 0 : bean.getIdleConnections();
+    }
+
+    /**
+     * @return The number of open connections
+     */
+    public int getTotalConnections() {
+        HikariPoolMXBean bean = pool.getPoolBean();
+        return bean == null ? 0 : bean.getTotalConnections();
+    }
+
+    /**
+     * @return The number of threads blocked waiting for a connection
+     */
+    public int getWaitingThreads() {
+        HikariPoolMXBean bean = pool.getPoolBean();
+        return bean == null ? 0 : bean.getThreadsAwaitingConnection();
+    }
+
+    /**
+     * @return The number of read replica connections in use
+     */
+    public int getReplicaActiveConnections() {
+        HikariPoolMXBean bean = pool.getReadPoolBean();
+        return bean == null ? 0 : bean.getActiveConnections();
+    }
+
+    /**
+     * @return The number of open read replica connections
+     */
+    public int getReplicaTotalConnections() {
+        HikariPoolMXBean bean = pool.getReadPoolBean();
+        return bean == null ? 0 : bean.getTotalConnections();
+    }
+
+    /**
+     * @return The number of times a connection could not be acquired
+     */
+    public long getAcquireFailures() {
+        return acquireFailures.sum();
+    }
+
+    /**
+     * @param name The name of the query
+     * @return The execution times of the query or null if it has not run
+     */
+    @Nullable
+    public LatencyHistogram getQueryTimes(String name) {
+        return queryTimes.get(name);
+    }
+
+    /**
+     * @return An unmodifiable view of the execution times of every query which has run
+     */
+    public Map<String, LatencyHistogram> getAllQueryTimes() {
+        return Collections.unmodifiableMap(queryTimes);
+    }
+
+    /**
+     * @param limit The maximum number of queries to return
+     * @return The names of the queries with the highest 99th percentile execution time
+     */
+    public List<String> getSlowestQueries(int limit) {
+        return queryTimes.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, LatencyHistogram> e) -> e.getValue().getPercentileMicros(99)).reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    /**
+     * Clears all recorded times.
+     */
+    public void reset() {
+        acquireTimes.reset();
+        acquireFailures.reset();
+        queryTimes.clear();
+    }
+
+    /**
+     * @return A single line describing the current state of the pool
+     */
+    public String summary() {
+        String summary = String.format("circuit=%s active=%d idle=%d waiting=%d total=%d/%d acquire-failures=%d | acquire %s",
+                pool.getCircuitBreaker().getState().name().toLowerCase(), getActiveConnections(), getIdleConnections(),
+                getWaitingThreads(), getTotalConnections(), pool.getMaximumPoolSize(), getAcquireFailures(), acquireTimes.summary());
+        if (!pool.hasReadReplica()) return summary;
+
+        return summary + String.format(" | replica active=%d total=%d/%d",
+                getReplicaActiveConnections(), getReplicaTotalConnections(), pool.getMaximumReadPoolSize());
+    }
+}
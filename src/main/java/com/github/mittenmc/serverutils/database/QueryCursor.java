@@ -0,0 +1,87 @@
+package com.github.mittenmc.serverutils.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the rows of a query one at a time instead of loading the whole result into memory.<p>
+ * Rows are fetched from the database in chunks of the fetch size and mapped only when {@link #next()} is called.
+ * The cursor holds a pooled connection until it is closed, so it should always be used in a try-with-resources block.
+ * @param <T> The row type
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class QueryCursor<T> implements AutoCloseable {
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final RowMapper<T> mapper;
+    private final Runnable onClose;
+    private boolean hasRow;
+    private boolean advanced;
+    private boolean closed;
+    private long rowCount;
+
+    QueryCursor(Connection connection, PreparedStatement statement, ResultSet resultSet, RowMapper<T> mapper, Runnable onClose) {
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.mapper = mapper;
+        this.onClose = onClose;
+    }
+
+    /**
+     * @return If there is another row
+     * @throws SQLException If the next chunk of rows could not be fetched
+     */
+    public boolean hasNext() throws SQLException {
+        if (closed) return false;
+        if (!advanced) {
+            hasRow = resultSet.next();
+            advanced = true;
+        }
+        return hasRow;
+    }
+
+    /**
+     * Maps the next row.
+     * @return The mapped row
+     * @throws SQLException If the row could not be read
+     * @throws NoSuchElementException If there are no rows left
+     */
+    public T next() throws SQLException {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        advanced = false;
+        rowCount++;
+        return mapper.map(resultSet);
+    }
+
+    /**
+     * @return The number of rows read so far
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Closes the result set and returns the connection to the pool.
+     * With MySQL, any unread rows of a streamed result are discarded by the driver before the connection is released.
+     * @throws SQLException If the connection could not be closed
+     */
+    @Override
+    public void close() throws SQLException {
+        if (closed) return;
+        closed = true;
+
+        try (connection; statement; resultSet) {
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.github.mittenmc.serverutils.database;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Holds the SQL used by a {@link Database} under unique names.<p>
+ * Registered queries can be pre-prepared on the pooled connections with {@link #prewarm()}
+ * so the driver and server statement caches are filled before the first real use.
+ * Queries are translated to the pool's {@link DatabaseType} when registered.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class QueryRegistry {
+
+    private final DatabaseConnectionPool pool;
+    private final Map<String, NamedQuery<?>> queries;
+
+    QueryRegistry(DatabaseConnectionPool pool) {
+        this.pool = pool;
+        queries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Registers a query with a typed parameter binder.
+     * Registering a name again replaces the previous query.
+     * @param name The unique name of the query
+     * @param sql The MySQL statement
+     * @param binder Sets the parameters of the statement
+     * @return The registered query
+     * @param <P> The parameter type
+     */
+    public <P> NamedQuery<P> register(String name, String sql, ParameterBinder<P> binder) {
+        NamedQuery<P> query = new NamedQuery<>(name, pool.getType().translate(sql), binder);
+        queries.put(name, query);
+        return query;
+    }
+
+    /**
+     * Registers a query whose parameters are set in order from an array.
+     * @param name The unique name of the query
+     * @param sql The MySQL statement
+     * @return The registered query
+     * @see ParameterBinder#positional()
+     */
+    public NamedQuery<Object[]> register(String name, String sql) {
+        return register(name, sql, ParameterBinder.positional());
+    }
+
+    /**
+     * Registers every key of a YAML resource as a positional query.
+     * The file should map names to SQL, for example {@code load-profile: "SELECT * FROM profiles WHERE uuid = ?"}.
+     * @param resource The path of the resource in the plugin's jar
+     * @return The number of queries registered
+     */
+    public int load(String resource) {
+        try (InputStream in = pool.instance.getResource(resource)) {
+            if (in == null) return 0;
+
+            YamlConfiguration config = YamlConfiguration.loadConfiguration(new InputStreamReader(in, StandardCharsets.UTF_8));
+            int count = 0;
+            for (String key : config.getKeys(false)) {
+                String sql = config.getString(key);
+                if (sql == null) continue;
+
+                register(key, sql);
+                count++;
+            }
+            return count;
+        } catch (IOException e) {
+            pool.instance.getLogger().log(Level.SEVERE, "Failed to read query file: " + resource, e);
+            return 0;
+        }
+    }
+
+    /**
+     * @param name The name of the query
+     * @return The query or null if none is registered with this name
+     */
+    @Nullable
+    public NamedQuery<?> get(String name) {
+        return queries.get(name);
+    }
+
+    /**
+     * @return All registered queries
+     */
+    public Collection<NamedQuery<?>> getQueries() {
+        return Collections.unmodifiableCollection(queries.values());
+    }
+
+    /**
+     * Prepares a registered query on the connection.
+     * @param conn The connection
+     * @param name The name of the query
+     * @return The prepared statement
+     * @throws SQLException If the statement could not be prepared
+     * @throws IllegalArgumentException If no query is registered with this name
+     */
+    public PreparedStatement prepare(Connection conn, String name) throws SQLException {
+        NamedQuery<?> query = queries.get(name);
+        if (query == null) throw new IllegalArgumentException("No query is registered with the name '" + name + "'");
+
+        return conn.prepareStatement(query.getSql());
+    }
+
+    /**
+     * Prepares and closes every registered query on each of the pool's connections.
+     * With {@code cachePrepStmts} and {@code useServerPrepStmts} enabled, closed statements stay cached
+     * on their connection, so later executions skip the parse on the server.<p>
+     * The pool hands a thread back the connection it returned last, so every warmed connection is held
+     * until the rest are warmed, then all are returned together. Connections are only borrowed while the pool
+     * can hand one out without waiting, so other work is never blocked behind the warm-up.
+     * Connections which were busy cache each statement on their first use instead.
+     * Registries sharing a pool warm one after another. This should only be called at startup.
+     */
+    public void prewarm() {
+        if (queries.isEmpty()) return;
+
+        synchronized (pool.prewarmLock) {
+            List<Connection> held = new ArrayList<>();
+            try {
+                while (held.size() < pool.getMaximumPoolSize() && (held.isEmpty() || canBorrowWithoutWaiting())) {
+                    Connection conn = pool.getConnection();
+                    held.add(conn);
+
+                    for (NamedQuery<?> query : queries.values()) {
+                        try (PreparedStatement ignored = conn.prepareStatement(query.getSql())) {
+                            // Closing returns the statement to the connection's cache
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                pool.instance.getLogger().log(Level.WARNING, "Failed to pre-warm prepared statements", e);
+            } finally {
+                for (Connection conn : held) {
+                    try {
+                        conn.close();
+                    } catch (SQLException ignored) {
+                        // The pool replaces a connection which fails to close
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return If the pool has an idle connection or may open a new one
+     */
+    private boolean canBorrowWithoutWaiting() {
+        PoolMetrics metrics = pool.getMetrics();
+        return metrics.getIdleConnections() > 0 || metrics.getTotalConnections() < pool.getMaximumPoolSize();
+    }
+}
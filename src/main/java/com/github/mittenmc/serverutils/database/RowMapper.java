@@ -0,0 +1,23 @@
+package com.github.mittenmc.serverutils.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Converts the current row of a {@link ResultSet} into an object.
+ * @param <T> The type of object
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    /**
+     * Reads the current row. Implementations should not move the cursor.
+     * @param resultSet The result set positioned at a row
+     * @return The mapped object
+     * @throws SQLException If a column could not be read
+     */
+    T map(ResultSet resultSet) throws SQLException;
+}
@@ -0,0 +1,339 @@
+package com.github.mittenmc.serverutils.database;
+
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Applies versioned schema migrations from the plugin's resources.<p>
+ * Migrations are read from resources/{@value MIGRATIONS_DIRECTORY}/ and must be named {@code V<version>__<description>.sql}.
+ * Every applied migration is recorded with its checksum in the {@value HISTORY_TABLE} table,
+ * so a restart with no new migrations only reads the history table once.<p>
+ * The legacy resources/{@value DatabaseConnectionPool#SETUP_FILE_NAME} file is treated as version {@value BASELINE_VERSION}.
+ * Since it was written to be re-run, it is executed again whenever its contents change.<p>
+ * On MySQL, servers starting at the same time take a named lock so only one of them migrates.
+ * MySQL commits DDL statements such as {@code CREATE} and {@code ALTER} implicitly, so a migration containing them
+ * is not transactional there. If it fails partway, the statements before the failure stay applied and the migration
+ * must be written to be re-run or fixed by hand. SQLite runs DDL inside the transaction.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+public class SchemaMigrator {
+
+    public static final String MIGRATIONS_DIRECTORY = "migrations";
+    public static final String HISTORY_TABLE = "serverutils_schema_history";
+    private static final int BASELINE_VERSION = 0;
+    private static final Pattern MIGRATION_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    private static final String CREATE_HISTORY_TABLE = "CREATE TABLE IF NOT EXISTS " + HISTORY_TABLE + " (" +
+            "plugin VARCHAR(64) NOT NULL, " +
+            "version INT NOT NULL, " +
+            "description VARCHAR(255) NOT NULL, " +
+            "checksum VARCHAR(64) NOT NULL, " +
+            "applied_at BIGINT NOT NULL, " +
+            "PRIMARY KEY (plugin, version))";
+    private static final String SELECT_HISTORY = "SELECT version, checksum FROM " + HISTORY_TABLE + " WHERE plugin = ?";
+    private static final String INSERT_HISTORY = "INSERT INTO " + HISTORY_TABLE + " (plugin, version, description, checksum, applied_at) VALUES (?, ?, ?, ?, ?)";
+    private static final String DELETE_HISTORY = "DELETE FROM " + HISTORY_TABLE + " WHERE plugin = ? AND version = ?";
+    private static final String GET_LOCK = "SELECT GET_LOCK(?, ?)";
+    private static final String RELEASE_LOCK = "SELECT RELEASE_LOCK(?)";
+
+    private final DatabaseConnectionPool pool;
+    private final JavaPlugin instance;
+
+    public SchemaMigrator(DatabaseConnectionPool pool) {
+        this.pool = pool;
+        this.instance = pool.instance;
+    }
+
+    /**
+     * Applies all migrations which have not been applied yet, in version order.
+     * Each migration runs in its own transaction, though DDL is not transactional on MySQL.
+     * Migration stops at the first failure, and nothing runs if two migrations share a version.
+     * @return If the schema is up to date
+     */
+    public boolean migrate() {
+        List<Migration> migrations;
+        try {
+            migrations = loadMigrations();
+        } catch (IOException e) {
+            instance.getLogger().log(Level.SEVERE, "Failed to read database migration files.", e);
+            return false;
+        }
+        if (migrations.isEmpty()) return true;
+
+        for (int i = 1; i < migrations.size(); i++) {
+            Migration previous = migrations.get(i - 1);
+            Migration migration = migrations.get(i);
+            if (previous.version == migration.version) {
+                instance.getLogger().severe("Database migrations " + previous.fileName + " and " + migration.fileName +
+                        " have the same version. Each migration needs a unique version.");
+                return false;
+            }
+        }
+
+        try (Connection conn = pool.getConnection()) {
+            if (!acquireLock(conn)) {
+                instance.getLogger().severe("Timed out waiting for another server to finish migrating the database schema.");
+                return false;
+            }
+            try {
+                return migrate(conn, migrations);
+            } finally {
+                releaseLock(conn);
+            }
+        } catch (SQLException e) {
+            instance.getLogger().log(Level.SEVERE, "Failed while migrating the database schema.", e);
+            return false;
+        }
+    }
+
+    private boolean migrate(Connection conn, List<Migration> migrations) throws SQLException {
+        Map<Integer, String> applied = getAppliedMigrations(conn);
+
+        for (Migration migration : migrations) {
+            String checksum = applied.get(migration.version);
+
+            if (checksum == null) {
+                apply(conn, migration, false);
+            } else if (!checksum.equals(migration.checksum)) {
+                if (migration.version == BASELINE_VERSION) {
+                    apply(conn, migration, true);
+                } else {
+                    instance.getLogger().severe("Database migration " + migration.fileName + " was modified after it was applied. " +
+                            "Create a new migration instead of editing an applied one.");
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes a MySQL named lock for this plugin's migrations, so servers sharing the database migrate one at a time.
+     * SQLite databases belong to a single server, so no lock is needed.
+     * @return If the lock was taken before the timeout
+     */
+    private boolean acquireLock(Connection conn) throws SQLException {
+        if (pool.getType() != DatabaseType.MYSQL) return true;
+
+        try (PreparedStatement stmt = conn.prepareStatement(GET_LOCK)) {
+            stmt.setString(1, getLockName());
+            stmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() && resultSet.getInt(1) == 1;
+            }
+        }
+    }
+
+    private void releaseLock(Connection conn) {
+        if (pool.getType() != DatabaseType.MYSQL) return;
+
+        try (PreparedStatement stmt = conn.prepareStatement(RELEASE_LOCK)) {
+            stmt.setString(1, getLockName());
+            stmt.executeQuery().close();
+        } catch (SQLException e) {
+            // The lock is released when the connection closes
+            instance.getLogger().log(Level.WARNING, "Failed to release the database migration lock.", e);
+        }
+    }
+
+    /**
+     * MySQL lock names are limited to 64 characters.
+     */
+    private String getLockName() {
+        String name = HISTORY_TABLE + ":" + instance.getName();
+        return name.length() > 64 ? name.substring(0, 64) : name;
+    }
+
+    /**
+     * Reads the applied versions and their checksums.
+     * The history table is only checked for and created when the first lookup fails, so a warm start reads it once.
+     * @throws SQLException If the lookup failed for any reason other than a missing history table
+     */
+    private Map<Integer, String> getAppliedMigrations(Connection conn) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+
+        try (PreparedStatement stmt = conn.prepareStatement(SELECT_HISTORY)) {
+            stmt.setString(1, instance.getName());
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    applied.put(resultSet.getInt(1), resultSet.getString(2));
+                }
+            }
+        } catch (SQLException e) {
+            if (historyTableExists(conn)) throw e;
+
+            try (PreparedStatement stmt = conn.prepareStatement(CREATE_HISTORY_TABLE)) {
+                stmt.execute();
+            }
+        }
+        return applied;
+    }
+
+    private boolean historyTableExists(Connection conn) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        try (ResultSet resultSet = metaData.getTables(conn.getCatalog(), null, HISTORY_TABLE, new String[]{"TABLE"})) {
+            return resultSet.next();
+        }
+    }
+
+    private void apply(Connection conn, Migration migration, boolean replace) throws SQLException {
+        instance.getLogger().info("Applying database migration " + migration.fileName);
+
+        conn.setAutoCommit(false);
+        try {
+            for (String query : migration.sql.split(";")) {
+                if (query.trim().isEmpty()) continue;
+                try (PreparedStatement stmt = conn.prepareStatement(pool.getType().translate(query))) {
+                    stmt.execute();
+                }
+            }
+
+            if (replace) {
+                try (PreparedStatement stmt = conn.prepareStatement(DELETE_HISTORY)) {
+                    stmt.setString(1, instance.getName());
+                    stmt.setInt(2, migration.version);
+                    stmt.executeUpdate();
+                }
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(INSERT_HISTORY)) {
+                stmt.setString(1, instance.getName());
+                stmt.setInt(2, migration.version);
+                stmt.setString(3, migration.description);
+                stmt.setString(4, migration.checksum);
+                stmt.setLong(5, System.currentTimeMillis());
+                stmt.executeUpdate();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("Database migration " + migration.fileName + " failed", e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * @return All migrations sorted by version, including the legacy setup file if it exists
+     */
+    private List<Migration> loadMigrations() throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+
+        String setup = readResource(DatabaseConnectionPool.SETUP_FILE_NAME);
+        if (setup != null) {
+            migrations.add(new Migration(BASELINE_VERSION, "dbsetup", DatabaseConnectionPool.SETUP_FILE_NAME, setup));
+        }
+
+        for (String fileName : findMigrationFiles()) {
+            Matcher matcher = MIGRATION_NAME.matcher(fileName);
+            if (!matcher.matches()) {
+                instance.getLogger().warning("Ignoring database migration with an invalid name: " + fileName);
+                continue;
+            }
+
+            int version = Integer.parseInt(matcher.group(1));
+            if (version <= BASELINE_VERSION) {
+                instance.getLogger().warning("Ignoring database migration " + fileName + ". Versions must be greater than " + BASELINE_VERSION);
+                continue;
+            }
+
+            String sql = readResource(MIGRATIONS_DIRECTORY + "/" + fileName);
+            if (sql != null) {
+                migrations.add(new Migration(version, matcher.group(2).replace('_', ' '), fileName, sql));
+            }
+        }
+
+        migrations.sort(Comparator.comparingInt(migration -> migration.version));
+        return migrations;
+    }
+
+    /**
+     * Lists the migration files packaged in the plugin's jar.
+     * Resources cannot be listed through the class loader, so the jar is opened directly.
+     * @return The file names in the migrations directory
+     */
+    private List<String> findMigrationFiles() throws IOException {
+        CodeSource codeSource = instance.getClass().getProtectionDomain().getCodeSource();
+        if (codeSource == null) return Collections.emptyList();
+
+        File file;
+        try {
+            file = new File(codeSource.getLocation().toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Unable to locate the plugin jar", e);
+        }
+        if (!file.isFile()) return Collections.emptyList();
+
+        List<String> fileNames = new ArrayList<>();
+        String prefix = MIGRATIONS_DIRECTORY + "/";
+        try (JarFile jar = new JarFile(file)) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (!entry.isDirectory() && name.startsWith(prefix) && name.indexOf('/', prefix.length()) == -1) {
+                    fileNames.add(name.substring(prefix.length()));
+                }
+            }
+        }
+        return fileNames;
+    }
+
+    @Nullable
+    private String readResource(String path) throws IOException {
+        try (InputStream in = instance.getResource(path)) {
+            if (in == null) return null;
+            return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).lines().collect(Collectors.joining("\n"));
+        }
+    }
+
+    private static String checksum(String sql) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(sql.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String fileName;
+        private final String sql;
+        private final String checksum;
+
+        private Migration(int version, String description, String fileName, String sql) {
+            this.version = version;
+            this.description = description;
+            this.fileName = fileName;
+            this.sql = sql;
+            this.checksum = SchemaMigrator.checksum(sql);
+        }
+    }
+}
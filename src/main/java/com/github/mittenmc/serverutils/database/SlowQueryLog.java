@@ -0,0 +1,153 @@
+package com.github.mittenmc.serverutils.database;
+
+import lombok.Getter;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * Records statements which take longer than a threshold to execute.<p>
+ * Statements are grouped by a fingerprint of their SQL where literals and parameter lists are normalized.
+ * The slowest offenders are kept in a bounded min-heap ordered by duration, so a burst of slightly slow queries
+ * cannot push out the worst ones. Each offender is logged when recorded.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class SlowQueryLog {
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern VALUES_LIST = Pattern.compile("(\\(\\?\\+\\))(?:\\s*,\\s*\\(\\?\\+\\))+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final DatabaseConnectionPool pool;
+    @Getter private final long thresholdMillis;
+    private final int size;
+    private final PriorityQueue<SlowQuery> entries;
+
+    SlowQueryLog(DatabaseConnectionPool pool, long thresholdMillis, int size) {
+        this.pool = pool;
+        this.thresholdMillis = thresholdMillis;
+        this.size = Math.max(1, size);
+        this.entries = new PriorityQueue<>(this.size, Comparator.comparingLong(SlowQuery::getMillis));
+    }
+
+    /**
+     * Records an execution if it exceeded the threshold.
+     * @param sql The executed SQL
+     * @param nanos The execution time in nanoseconds
+     * @param parameterCount The number of bound parameters
+     * @param batchSize The number of batched executions or 0 if this was not a batch
+     */
+    void record(String sql, long nanos, int parameterCount, int batchSize) {
+        long millis = nanos / 1_000_000;
+        if (millis < thresholdMillis) return;
+
+        SlowQuery query = new SlowQuery(fingerprint(sql), millis, parameterCount, batchSize,
+                pool.getPlugin().getName(), findCaller(), System.currentTimeMillis());
+        synchronized (entries) {
+            if (entries.size() < size) {
+                entries.add(query);
+            } else if (entries.peek().millis < millis) {
+                // Replace the fastest of the kept queries
+                entries.poll();
+                entries.add(query);
+            }
+        }
+
+        pool.getPlugin().getLogger().log(Level.WARNING, String.format("Slow query took %dms%nFingerprint: %s%nParameters: %d%nBatch size: %d%nCaller: %s",
+                query.millis, query.fingerprint, query.parameterCount, query.batchSize, query.caller));
+    }
+
+    /**
+     * @param limit The maximum number of entries
+     * @return The slowest recorded queries, slowest first
+     */
+    public List<SlowQuery> getWorst(int limit) {
+        List<SlowQuery> list;
+        synchronized (entries) {
+            list = new ArrayList<>(entries);
+        }
+        list.sort(Comparator.comparingLong(SlowQuery::getMillis).reversed());
+        return list.size() > limit ? list.subList(0, limit) : list;
+    }
+
+    /**
+     * Removes all recorded queries.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Normalizes SQL so executions of the same statement with different values share a fingerprint.
+     * Literals become {@code ?} and lists of parameters collapse to {@code (?+)}.
+     * @param sql The SQL
+     * @return The fingerprint
+     */
+    public static String fingerprint(String sql) {
+        String fingerprint = STRING_LITERAL.matcher(sql).replaceAll("?");
+        fingerprint = NUMBER_LITERAL.matcher(fingerprint).replaceAll("?");
+        fingerprint = WHITESPACE.matcher(fingerprint).replaceAll(" ").trim();
+        fingerprint = PARAMETER_LIST.matcher(fingerprint).replaceAll("(?+)");
+        fingerprint = VALUES_LIST.matcher(fingerprint).replaceAll("$1, ...");
+        return fingerprint.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return The first stack frame outside of this package and the JDBC layers
+     */
+    @Nullable
+    private static String findCaller() {
+        String packageName = SlowQueryLog.class.getPackageName();
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(frame -> {
+                    String className = frame.getClassName();
+                    return !className.startsWith(packageName) && !className.startsWith("java.")
+                            && !className.startsWith("jdk.") && !className.startsWith("com.sun.proxy")
+                            && !className.startsWith("com.zaxxer.hikari") && !className.startsWith("com.mysql")
+                            && !className.startsWith("org.sqlite");
+                })
+                .findFirst()
+                .map(frame -> frame.getClassName() + "#" + frame.getMethodName() + ":" + frame.getLineNumber())
+                .orElse(null));
+    }
+
+    @Getter
+    public static class SlowQuery {
+
+        private final String fingerprint;
+        private final long millis;
+        private final int parameterCount;
+        private final int batchSize;
+        private final String plugin;
+        @Nullable private final String caller;
+        private final long timestamp;
+
+        private SlowQuery(String fingerprint, long millis, int parameterCount, int batchSize, String plugin, @Nullable String caller, long timestamp) {
+            this.fingerprint = fingerprint;
+            this.millis = millis;
+            this.parameterCount = parameterCount;
+            this.batchSize = batchSize;
+            this.plugin = plugin;
+            this.caller = caller;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return millis + "ms | " + fingerprint + " | params: " + parameterCount + " | batch: " + batchSize + " | plugin: " + plugin + " | caller: " + caller;
+        }
+    }
+}
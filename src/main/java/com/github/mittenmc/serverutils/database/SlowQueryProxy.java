@@ -0,0 +1,114 @@
+package com.github.mittenmc.serverutils.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Wraps connections so every statement they create reports its execution time to a {@link SlowQueryLog}.
+ * Dynamic proxies are used because the JDBC interfaces are too large to delegate by hand.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+final class SlowQueryProxy {
+
+    private SlowQueryProxy() {}
+
+    /**
+     * @param connection The connection to wrap
+     * @param log The log to report to
+     * @return A connection which times all of its statements
+     */
+    static Connection wrap(Connection connection, SlowQueryLog log) {
+        return (Connection) Proxy.newProxyInstance(SlowQueryProxy.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(connection, log));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        private final SlowQueryLog log;
+
+        private ConnectionHandler(Connection connection, SlowQueryLog log) {
+            this.connection = connection;
+            this.log = log;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = SlowQueryProxy.invoke(connection, method, args);
+
+            String sql = args != null && args.length > 0 && args[0] instanceof String s ? s : null;
+            if (result instanceof CallableStatement stmt) {
+                return wrapStatement(stmt, CallableStatement.class, sql);
+            } else if (result instanceof PreparedStatement stmt) {
+                return wrapStatement(stmt, PreparedStatement.class, sql);
+            } else if (result instanceof Statement stmt) {
+                return wrapStatement(stmt, Statement.class, null);
+            }
+            return result;
+        }
+
+        private Object wrapStatement(Statement stmt, Class<? extends Statement> type, String sql) {
+            return Proxy.newProxyInstance(SlowQueryProxy.class.getClassLoader(),
+                    new Class<?>[]{type}, new StatementHandler(stmt, log, sql));
+        }
+    }
+
+    private static class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final SlowQueryLog log;
+        private final String preparedSql;
+        private int parameterCount;
+        private int batchSize;
+
+        private StatementHandler(Statement statement, SlowQueryLog log, String preparedSql) {
+            this.statement = statement;
+            this.log = log;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                parameterCount = Math.max(parameterCount, index);
+            } else if (name.equals("addBatch")) {
+                batchSize++;
+            } else if (name.equals("clearBatch")) {
+                batchSize = 0;
+            }
+
+            if (!name.startsWith("execute")) {
+                return SlowQueryProxy.invoke(statement, method, args);
+            }
+
+            String sql = args != null && args.length > 0 && args[0] instanceof String s ? s : preparedSql;
+            long start = System.nanoTime();
+            try {
+                return SlowQueryProxy.invoke(statement, method, args);
+            } finally {
+                if (sql != null) {
+                    log.record(sql, System.nanoTime() - start, parameterCount, batchSize);
+                }
+                if (name.startsWith("executeBatch") || name.startsWith("executeLargeBatch")) {
+                    batchSize = 0;
+                }
+            }
+        }
+    }
+}
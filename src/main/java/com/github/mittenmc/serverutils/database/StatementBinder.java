@@ -0,0 +1,21 @@
+package com.github.mittenmc.serverutils.database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Sets the parameters of a {@link PreparedStatement} for a single execution.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@FunctionalInterface
+public interface StatementBinder {
+
+    /**
+     * Binds this write's parameters to the statement.
+     * @param stmt The statement to bind to
+     * @throws SQLException If a parameter could not be set
+     */
+    void bind(PreparedStatement stmt) throws SQLException;
+}
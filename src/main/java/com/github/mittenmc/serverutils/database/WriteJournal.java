@@ -0,0 +1,546 @@
+package com.github.mittenmc.serverutils.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A local append-only log of writes which have not reached the database yet.<p>
+ * Each write is stored as its SQL and parameter values in a memory-mapped file in the plugin's data folder.
+ * Records are checksummed, so a record torn by a crash is discarded along with everything after it.
+ * An append is acknowledged once it has been forced to disk.<p>
+ * Journaled writes are replayed in the order they were appended once the pool is available.
+ * The replayed part of the log is then compacted away by rewriting the pending records into a new file
+ * which atomically replaces the old one, so a crash during compaction never loses or repeats records.<p>
+ * Replay is at-least-once. If the server crashes after a batch commits but before it is acknowledged,
+ * the batch runs again on the next start. Journaled SQL should therefore be idempotent, such as an upsert
+ * of absolute values, never a relative update like {@code balance = balance + ?}.<p>
+ * Only writes which failed because the database could not be reached belong in the journal, see {@link #isTransient(Throwable)}.
+ * A journaled write which still fails for another reason, such as a constraint violation, is moved to a
+ * dead-letter file next to the journal so it does not block the writes behind it.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class WriteJournal {
+
+    private static final int MAGIC = 0x53554A4C; // SUJL
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ACK_OFFSET_POSITION = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    private static final int REPLAY_BATCH_SIZE = 100;
+    private static final String DEAD_LETTER_SUFFIX = ".dead-letter.log";
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_STRING = 6;
+    private static final byte TYPE_BYTES = 7;
+
+    private final Logger logger;
+    private final ConnectionSource connections;
+    private final File file;
+    private final File deadLetterFile;
+    private FileChannel channel;
+    private final ExecutorService replayExecutor;
+    private final AtomicBoolean replayScheduled;
+    private final Object replayLock = new Object();
+    private MappedByteBuffer buffer;
+    private int ackOffset;
+    private int tail;
+
+    WriteJournal(DatabaseConnectionPool pool, File file) throws IOException {
+        this(file, pool.instance.getLogger(), pool.instance.getName(), pool::getConnection);
+    }
+
+    /**
+     * @param file The journal file
+     * @param logger The logger of the owning plugin
+     * @param name The name used for the replay thread
+     * @param connections Where replayed writes get their connection
+     */
+    WriteJournal(File file, Logger logger, String name, ConnectionSource connections) throws IOException {
+        this.logger = logger;
+        this.connections = connections;
+        this.file = file;
+        deadLetterFile = new File(file.getParentFile(), file.getName() + DEAD_LETTER_SUFFIX);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map(Math.max(INITIAL_CAPACITY, (int) channel.size()));
+        recover();
+
+        replayExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-db-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replayScheduled = new AtomicBoolean();
+    }
+
+    /**
+     * Appends a write to the journal and forces it to disk.
+     * Once this returns, the write survives a crash and will eventually be replayed.
+     * @param sql The SQL to execute
+     * @param params The parameters, which may only be null, booleans, numbers, strings or byte arrays
+     * @throws IOException If the write could not be stored
+     * @throws IllegalArgumentException If a parameter has an unsupported type
+     */
+    public void append(String sql, Object[] params) throws IOException {
+        byte[] payload = serialize(sql, params);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        synchronized (this) {
+            ensureCapacity(tail + RECORD_HEADER_SIZE + payload.length + 4);
+            buffer.putInt(tail + 4, (int) crc.getValue());
+            buffer.put(tail + RECORD_HEADER_SIZE, payload);
+            buffer.putInt(tail + RECORD_HEADER_SIZE + payload.length, 0);
+            // The length is written last so a partially written record is never read as valid
+            buffer.putInt(tail, payload.length);
+            tail += RECORD_HEADER_SIZE + payload.length;
+            buffer.force();
+        }
+    }
+
+    /**
+     * @return If any writes are waiting to be replayed
+     */
+    public synchronized boolean hasPending() {
+        return ackOffset < tail;
+    }
+
+    /**
+     * @return The number of bytes of writes waiting to be replayed
+     */
+    public synchronized int getPendingBytes() {
+        return tail - ackOffset;
+    }
+
+    /**
+     * Replays the journal on a background thread if it is not already scheduled.
+     */
+    public void scheduleReplay() {
+        if (!replayScheduled.compareAndSet(false, true)) return;
+
+        try {
+            replayExecutor.execute(() -> {
+                replayScheduled.set(false);
+                replay();
+            });
+        } catch (Exception e) {
+            replayScheduled.set(false);
+        }
+    }
+
+    /**
+     * Decides if a failed write may succeed later without changes, so it belongs in the journal.
+     * These are connection failures (SQLState class 08) and rejections by the pool's circuit breaker.
+     * Anything else, like a syntax error or constraint violation, would fail again on replay.
+     * @param e The error of the failed write
+     * @return If the error is caused by the database being unreachable
+     */
+    public static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientConnectionException || cause instanceof SQLNonTransientConnectionException ||
+                    cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException sqlException) {
+                String state = sqlException.getSQLState();
+                if (state != null && state.startsWith("08")) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Executes pending writes in order on the calling thread.
+     * Consecutive writes of the same SQL are sent as one batch.
+     * Replay stops at the first transient failure and resumes from the same write next time.
+     * If a batch fails for another reason, its writes are retried one at a time and the ones which
+     * still fail are moved to the dead-letter file.
+     * @return If the journal is now empty
+     */
+    public boolean replay() {
+        synchronized (replayLock) {
+            while (true) {
+                List<Record> records;
+                synchronized (this) {
+                    records = readRecords(ackOffset, REPLAY_BATCH_SIZE);
+                }
+                if (records.isEmpty()) break;
+
+                try {
+                    execute(records);
+                    acknowledge(records.get(records.size() - 1));
+                } catch (SQLException e) {
+                    if (isTransient(e) || !replayIndividually(records)) {
+                        logger.log(Level.WARNING, "Failed to replay journaled database writes. " +
+                                "They will be retried when the database is available", e);
+                        return false;
+                    }
+                }
+            }
+
+            compact();
+            return true;
+        }
+    }
+
+    /**
+     * Replays records one at a time after their batch failed, moving those which fail permanently to the dead-letter file.
+     * @return If every record was replayed or dead-lettered. False if the database became unreachable
+     */
+    private boolean replayIndividually(List<Record> records) {
+        for (Record record : records) {
+            try {
+                execute(List.of(record));
+            } catch (SQLException e) {
+                if (isTransient(e)) return false;
+                deadLetter(record, e);
+            }
+            acknowledge(record);
+        }
+        return true;
+    }
+
+    /**
+     * Marks every record up to and including this one as replayed.
+     */
+    private synchronized void acknowledge(Record record) {
+        ackOffset = record.end;
+        buffer.putInt(ACK_OFFSET_POSITION, ackOffset);
+        buffer.force();
+    }
+
+    /**
+     * Appends a write which can never succeed to the dead-letter file so it can be fixed by hand.
+     * Byte array parameters are written in Base64.
+     */
+    private void deadLetter(Record record, SQLException e) {
+        StringBuilder line = new StringBuilder()
+                .append(Instant.now()).append('\t')
+                .append(e.getSQLState()).append(' ').append(e.getMessage()).append('\t')
+                .append(record.sql).append('\t');
+        for (int i = 0; i < record.params.length; i++) {
+            if (i > 0) line.append(", ");
+            Object param = record.params[i];
+            line.append(param instanceof byte[] bytes ? Base64.getEncoder().encodeToString(bytes) : String.valueOf(param));
+        }
+        line.append(System.lineSeparator());
+
+        logger.log(Level.SEVERE, "Dropped a journaled database write which cannot succeed. " +
+                "It was saved to " + deadLetterFile.getName() + ": " + record.sql, e);
+        try {
+            Files.writeString(deadLetterFile.toPath(), line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ioException) {
+            logger.log(Level.SEVERE, "Failed to write to " + deadLetterFile.getName() + ". The write was lost: " + line, ioException);
+        }
+    }
+
+    /**
+     * Stops the replay thread and flushes the file.
+     * Anything still pending is replayed the next time the journal is opened.
+     */
+    void close() {
+        replayExecutor.shutdown();
+        try {
+            replayExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            buffer.force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close the database journal", e);
+            }
+        }
+    }
+
+    private void execute(List<Record> records) throws SQLException {
+        try (Connection conn = connections.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int start = 0;
+                while (start < records.size()) {
+                    String sql = records.get(start).sql;
+                    int end = start;
+                    while (end < records.size() && records.get(end).sql.equals(sql)) end++;
+
+                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        for (int i = start; i < end; i++) {
+                            Object[] params = records.get(i).params;
+                            for (int p = 0; p < params.length; p++) {
+                                stmt.setObject(p + 1, params[p]);
+                            }
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                    }
+                    start = end;
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Moves the pending records to the start of the file once they are no longer behind replayed ones.
+     * This runs after every complete replay.
+     */
+    synchronized void compact() {
+        if (ackOffset == HEADER_SIZE) return;
+
+        int pending = tail - ackOffset;
+        if (pending == 0) {
+            // The first record is cleared and forced before the header points at it,
+            // so a crash in between cannot make replayed records pending again
+            buffer.putInt(HEADER_SIZE, 0);
+            buffer.force();
+            ackOffset = HEADER_SIZE;
+            tail = HEADER_SIZE;
+            buffer.putInt(ACK_OFFSET_POSITION, ackOffset);
+            buffer.force();
+            return;
+        }
+
+        try {
+            rewrite(pending);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to compact the database journal. It will be compacted after the next replay", e);
+        }
+    }
+
+    /**
+     * Copies the pending records into a new file and moves it over the journal with an atomic rename.
+     * A crash leaves either the old journal or the new one on disk, never a mix of both.
+     * @param pending The number of bytes of pending records
+     */
+    private void rewrite(int pending) throws IOException {
+        File compacted = new File(file.getParentFile(), file.getName() + COMPACT_SUFFIX);
+        ByteBuffer contents = ByteBuffer.allocate(HEADER_SIZE + pending + 4);
+        contents.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(HEADER_SIZE).putInt(0);
+        ByteBuffer remaining = buffer.duplicate();
+        remaining.position(ackOffset).limit(tail);
+        contents.put(remaining);
+        contents.putInt(0);
+        contents.flip();
+
+        try (FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (contents.hasRemaining()) {
+                out.write(contents);
+            }
+            out.force(true);
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // The old mapping still points at the replaced file, so the new one is opened and mapped
+        channel.close();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map(Math.max(INITIAL_CAPACITY, (int) channel.size()));
+        ackOffset = HEADER_SIZE;
+        tail = HEADER_SIZE + pending;
+    }
+
+    /**
+     * Reads the header and finds the end of the last valid record.
+     */
+    private void recover() {
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT_VERSION);
+            buffer.putInt(ACK_OFFSET_POSITION, HEADER_SIZE);
+            buffer.putInt(HEADER_SIZE, 0);
+            buffer.force();
+        }
+
+        ackOffset = buffer.getInt(ACK_OFFSET_POSITION);
+        if (ackOffset < HEADER_SIZE || ackOffset > buffer.capacity()) {
+            logger.severe("The database journal " + file.getName() + " has an invalid header. Pending writes were lost");
+            ackOffset = HEADER_SIZE;
+        }
+
+        List<Record> records = readRecords(ackOffset, Integer.MAX_VALUE);
+        tail = records.isEmpty() ? ackOffset : records.get(records.size() - 1).end;
+        if (tail + 4 <= buffer.capacity()) {
+            buffer.putInt(tail, 0);
+        }
+
+        if (!records.isEmpty()) {
+            logger.info("Found " + records.size() + " journaled database writes to replay");
+        }
+    }
+
+    /**
+     * Must be called while synchronized.
+     * @return Up to the limit of valid records starting at the offset
+     */
+    private List<Record> readRecords(int offset, int limit) {
+        List<Record> records = new ArrayList<>();
+        int position = offset;
+
+        while (records.size() < limit && position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) break;
+
+            byte[] payload = new byte[length];
+            buffer.get(position + RECORD_HEADER_SIZE, payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) break;
+
+            position += RECORD_HEADER_SIZE + length;
+            try {
+                records.add(deserialize(payload, position));
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                break;
+            }
+        }
+        return records;
+    }
+
+    private void ensureCapacity(int required) throws IOException {
+        if (required <= buffer.capacity()) return;
+
+        int capacity = buffer.capacity();
+        while (capacity < required) {
+            if (capacity > Integer.MAX_VALUE / 2) throw new IOException("The database journal is full");
+            capacity *= 2;
+        }
+        buffer.force();
+        map(capacity);
+    }
+
+    private void map(int capacity) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private static byte[] serialize(String sql, Object[] params) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            byte[] sqlBytes = sql.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(sqlBytes.length);
+            out.write(sqlBytes);
+            out.writeInt(params.length);
+
+            for (Object param : params) {
+                if (param == null) {
+                    out.writeByte(TYPE_NULL);
+                } else if (param instanceof Boolean b) {
+                    out.writeByte(TYPE_BOOLEAN);
+                    out.writeBoolean(b);
+                } else if (param instanceof Integer || param instanceof Short || param instanceof Byte) {
+                    out.writeByte(TYPE_INT);
+                    out.writeInt(((Number) param).intValue());
+                } else if (param instanceof Long l) {
+                    out.writeByte(TYPE_LONG);
+                    out.writeLong(l);
+                } else if (param instanceof Float f) {
+                    out.writeByte(TYPE_FLOAT);
+                    out.writeFloat(f);
+                } else if (param instanceof Double d) {
+                    out.writeByte(TYPE_DOUBLE);
+                    out.writeDouble(d);
+                } else if (param instanceof String s) {
+                    byte[] stringBytes = s.getBytes(StandardCharsets.UTF_8);
+                    out.writeByte(TYPE_STRING);
+                    out.writeInt(stringBytes.length);
+                    out.write(stringBytes);
+                } else if (param instanceof byte[] b) {
+                    out.writeByte(TYPE_BYTES);
+                    out.writeInt(b.length);
+                    out.write(b);
+                } else {
+                    throw new IllegalArgumentException("Unsupported journal parameter type: " + param.getClass().getName());
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Record deserialize(byte[] payload, int end) {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        byte[] sqlBytes = new byte[in.getInt()];
+        in.get(sqlBytes);
+
+        Object[] params = new Object[in.getInt()];
+        for (int i = 0; i < params.length; i++) {
+            byte type = in.get();
+            switch (type) {
+                case TYPE_NULL -> params[i] = null;
+                case TYPE_BOOLEAN -> params[i] = in.get() != 0;
+                case TYPE_INT -> params[i] = in.getInt();
+                case TYPE_LONG -> params[i] = in.getLong();
+                case TYPE_FLOAT -> params[i] = in.getFloat();
+                case TYPE_DOUBLE -> params[i] = in.getDouble();
+                case TYPE_STRING, TYPE_BYTES -> {
+                    byte[] bytes = new byte[in.getInt()];
+                    in.get(bytes);
+                    params[i] = type == TYPE_STRING ? new String(bytes, StandardCharsets.UTF_8) : bytes;
+                }
+                default -> throw new IllegalArgumentException("Unknown journal parameter type: " + type);
+            }
+        }
+        return new Record(new String(sqlBytes, StandardCharsets.UTF_8), params, end);
+    }
+
+    /**
+     * Supplies the connections replayed writes are executed on.
+     */
+    @FunctionalInterface
+    interface ConnectionSource {
+        Connection getConnection() throws SQLException;
+    }
+
+    private static class Record {
+        private final String sql;
+        private final Object[] params;
+        private final int end;
+
+        private Record(String sql, Object[] params, int end) {
+            this.sql = sql;
+            this.params = params;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.github.mittenmc.serverutils.player;
+
+import com.github.mittenmc.serverutils.utils.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects load and save statistics of a {@link PlayerDataContainer}.<p>
+ * Each {@link Operation} has a {@link LatencyHistogram} of its duration, a failure count and the number currently running.
+ * Queue depths are read live from the container.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class ContainerMetrics {
+
+    public enum Operation {
+        /**
+         * Loading the data of a joining or online player
+         */
+        LOAD,
+        /**
+         * Loading the data of an offline player
+         */
+        OFFLINE_LOAD,
+        /**
+         * Saving a profile or profile snapshot
+         */
+        SAVE
+    }
+
+    private final PlayerDataContainer<?> container;
+    private final Map<Operation, LatencyHistogram> times;
+    private final Map<Operation, LongAdder> failures;
+    private final Map<Operation, AtomicInteger> inFlight;
+    private final LatencyHistogram loadWaitTimes;
+
+    ContainerMetrics(PlayerDataContainer<?> container) {
+        this.container = container;
+        times = new EnumMap<>(Operation.class);
+        failures = new EnumMap<>(Operation.class);
+        inFlight = new EnumMap<>(Operation.class);
+        loadWaitTimes = new LatencyHistogram();
+
+        for (Operation operation : Operation.values()) {
+            times.put(operation, new LatencyHistogram());
+            failures.put(operation, new LongAdder());
+            inFlight.put(operation, new AtomicInteger());
+        }
+    }
+
+    /**
+     * Marks an operation as running.
+     * @param operation The operation
+     * @return The start time to pass to {@link #finish(Operation, long, boolean)}
+     */
+    long start(Operation operation) {
+        inFlight.get(operation).incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the duration of an operation and marks it as finished.
+     * @param operation The operation
+     * @param start The time returned by {@link #start(Operation)}
+     * @param success If the operation succeeded
+     */
+    void finish(Operation operation, long start, boolean success) {
+        times.get(operation).record(System.nanoTime() - start);
+        inFlight.get(operation).decrementAndGet();
+        if (!success) {
+            failures.get(operation).increment();
+        }
+    }
+
+    /**
+     * Records the time a load spent waiting in the loader queue.
+     * @param nanos The wait time in nanoseconds
+     */
+    void recordLoadWait(long nanos) {
+        loadWaitTimes.record(nanos);
+    }
+
+    /**
+     * @return The times loads spent waiting for a loader thread
+     */
+    public LatencyHistogram getLoadWaitTimes() {
+        return loadWaitTimes;
+    }
+
+    /**
+     * @param operation The operation
+     * @return The durations of the operation
+     */
+    public LatencyHistogram getTimes(Operation operation) {
+        return times.get(operation);
+    }
+
+    /**
+     * @param operation The operation
+     * @return The number of times the operation failed or returned no data
+     */
+    public long getFailures(Operation operation) {
+        return failures.get(operation).sum();
+    }
+
+    /**
+     * @param operation The operation
+     * @return The number of operations currently running
+     */
+    public int getInFlight(Operation operation) {
+        return inFlight.get(operation).get();
+    }
+
+    /**
+     * @return The number of loads waiting for a loader thread
+     */
+    public int getLoadQueueDepth() {
+        return container.getLoadQueueDepth();
+    }
+
+    /**
+     * @return The number of snapshot saves waiting for a save thread
+     */
+    public int getSaveQueueDepth() {
+        return container.getSaveQueueDepth();
+    }
+
+    /**
+     * Clears all recorded times and failures. In-flight counts are kept.
+     */
+    public void reset() {
+        for (Operation operation : Operation.values()) {
+            times.get(operation).reset();
+            failures.get(operation).reset();
+        }
+        loadWaitTimes.reset();
+    }
+
+    /**
+     * @return A single line describing the current state of the container
+     */
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("load-queue=").append(getLoadQueueDepth()).append(" save-queue=").append(getSaveQueueDepth())
+                .append(" | load wait ").append(loadWaitTimes.summary());
+        for (Operation operation : Operation.values()) {
+            builder.append(" | ").append(operation.name().toLowerCase())
+                    .append(" in-flight=").append(getInFlight(operation))
+                    .append(" failures=").append(getFailures(operation))
+                    .append(' ').append(times.get(operation).summary());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.mittenmc.serverutils.player;
+
+import com.github.mittenmc.serverutils.database.DatabaseConnectionPool;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Loads a joining player's data for every opted in {@link PlayerDataContainer} together.<p>
+ * Without the pipeline, each container handles the join on its own, so a server with several data plugins
+ * runs one load task and checks out one connection per plugin for every join. Containers which call
+ * {@link PlayerDataContainer#useJoinPipeline(DatabaseConnectionPool)} instead queue their load here while the
+ * join event runs. Once every listener has seen the event, the queued loads are grouped by connection pool and
+ * each group runs on a single connection with {@link PlayerDataContainer#loadPlayerData(Player, Connection)}.
+ * The results of all groups are added to their containers together in a single task on the main thread.<p>
+ * If a connection cannot be checked out, the containers of that group fall back to loading on their own.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class JoinPipeline implements Listener {
+
+    private static final int THREADS = 4;
+
+    private final JavaPlugin instance;
+    private final Map<UUID, List<Request>> pending;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * ServerUtils creates the only pipeline when it enables. Plugins should use {@code ServerUtils.getInstance().getJoinPipeline()}.
+     * @param instance The plugin running the pipeline
+     */
+    public JoinPipeline(JavaPlugin instance) {
+        this.instance = instance;
+        pending = new HashMap<>();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, instance.getName() + "-join-pipeline-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a container's load of a joining player. This must be called on the main thread during the join event.
+     * @param player The player who joined
+     * @param container The container to load the player into
+     * @param pool The pool the container loads from
+     */
+    void request(Player player, PlayerDataContainer<?> container, DatabaseConnectionPool pool) {
+        pending.computeIfAbsent(player.getUniqueId(), uuid -> new ArrayList<>()).add(new Request(container, pool));
+    }
+
+    /**
+     * Runs after every container has queued its load.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent e) {
+        List<Request> requests = pending.remove(e.getPlayer().getUniqueId());
+        if (requests == null) return;
+
+        Player player = e.getPlayer();
+        Map<DatabaseConnectionPool, List<PlayerDataContainer<?>>> groups = new LinkedHashMap<>();
+        for (Request request : requests) {
+            groups.computeIfAbsent(request.pool(), pool -> new ArrayList<>()).add(request.container());
+        }
+
+        List<CompletableFuture<List<Runnable>>> loads = new ArrayList<>();
+        for (Map.Entry<DatabaseConnectionPool, List<PlayerDataContainer<?>>> group : groups.entrySet()) {
+            try {
+                loads.add(CompletableFuture.supplyAsync(() -> loadGroup(player, group.getKey(), group.getValue()), executor));
+            } catch (RejectedExecutionException ex) {
+                // ServerUtils is disabling
+                group.getValue().forEach(container -> container.loadWithoutPipeline(player));
+            }
+        }
+
+        CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).whenComplete((ignored, error) -> {
+            List<Runnable> deliveries = new ArrayList<>();
+            for (CompletableFuture<List<Runnable>> load : loads) {
+                if (!load.isCompletedExceptionally()) deliveries.addAll(load.join());
+            }
+            if (deliveries.isEmpty() || !instance.isEnabled()) return;
+
+            Bukkit.getScheduler().runTask(instance, () -> deliveries.forEach(Runnable::run));
+        });
+    }
+
+    /**
+     * Discards loads queued for a player who left before the join event finished, such as by being kicked by a listener.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent e) {
+        pending.remove(e.getPlayer().getUniqueId());
+    }
+
+    /**
+     * Loads the player into every container of a group using one connection. Runs on a pipeline thread.
+     * Leases are taken first, since waiting on them while holding the shared connection could starve the pool.
+     * @return The tasks which add the loaded data to each container
+     */
+    private List<Runnable> loadGroup(Player player, DatabaseConnectionPool pool, List<PlayerDataContainer<?>> containers) {
+        for (PlayerDataContainer<?> container : containers) {
+            container.acquireLease(player.getUniqueId());
+        }
+
+        List<Runnable> deliveries = new ArrayList<>(containers.size());
+        int loaded = 0;
+        try (Connection conn = pool.getConnection()) {
+            for (PlayerDataContainer<?> container : containers) {
+                Runnable delivery = container.loadForPipeline(player, conn);
+                if (delivery != null) deliveries.add(delivery);
+                loaded++;
+            }
+        } catch (SQLException e) {
+            // Closing the connection can also fail, after every load has finished
+            if (loaded == containers.size()) return deliveries;
+
+            instance.getLogger().log(Level.WARNING, "Failed to get a connection to load the data of " + player.getName() +
+                    ". Loading it separately for " + (containers.size() - loaded) + " plugins", e);
+            for (int i = loaded; i < containers.size(); i++) {
+                containers.get(i).loadWithoutPipeline(player);
+            }
+        }
+        return deliveries;
+    }
+
+    /**
+     * @return The number of players whose loads are waiting for the join event to finish
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops the pipeline threads. Loads which already started are finished but not delivered.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        pending.clear();
+    }
+
+    private record Request(PlayerDataContainer<?> container, DatabaseConnectionPool pool) {}
+}
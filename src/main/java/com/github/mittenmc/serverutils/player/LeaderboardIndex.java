@@ -0,0 +1,325 @@
+package com.github.mittenmc.serverutils.player;
+
+import com.github.mittenmc.serverutils.database.Database;
+import com.github.mittenmc.serverutils.database.RowMapper;
+import com.github.mittenmc.serverutils.player.profile.PlayerProfile;
+import lombok.Getter;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Keeps players ranked by a score without sorting every profile each time a leaderboard is shown.<p>
+ * Scores are held in an indexable skip list, so a player's rank and the entry at a rank take O(log n),
+ * and the top k entries take O(k). Ties are ordered by UUID so ranks are stable.<p>
+ * Loaded profiles are added with {@link #update(PlayerProfile)}. A {@link PlayerDataContainer} does this whenever
+ * a profile is loaded, marked dirty or saved once the index is registered with {@link PlayerDataContainer#addLeaderboard(LeaderboardIndex)}.
+ * Players who are not loaded are added with {@link #put(UUID, double)}, usually by seeding the index from
+ * the database on startup. A {@link Database} subclass can stream a query selecting every player's UUID and score:
+ * {@code streamAsync(query, param, LeaderboardIndex.ROW_MAPPER, leaderboard::seed)}.
+ * Seeded scores never replace the score of a loaded profile.<p>
+ * All methods are safe to call from any thread.
+ * @param <E> The player data type
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class LeaderboardIndex<E extends PlayerProfile> {
+
+    private static final int MAX_LEVEL = 32;
+
+    /**
+     * Reads a row whose first column is a player's UUID as a string and whose second column is their score.
+     */
+    public static final RowMapper<Entry> ROW_MAPPER = resultSet -> new Entry(UUID.fromString(resultSet.getString(1)), resultSet.getDouble(2));
+
+    @Getter private final String name;
+    private final ToDoubleFunction<? super E> scoreExtractor;
+    private final boolean descending;
+    private final Map<UUID, Node> nodes;
+    private final Node head;
+    private int level;
+
+    /**
+     * Creates an index where the highest score is ranked first.
+     * @param name The name of this leaderboard
+     * @param scoreExtractor Reads the score of a profile. This may be called from any thread which marks a profile dirty
+     */
+    public LeaderboardIndex(String name, ToDoubleFunction<? super E> scoreExtractor) {
+        this(name, scoreExtractor, true);
+    }
+
+    /**
+     * @param name The name of this leaderboard
+     * @param scoreExtractor Reads the score of a profile. This may be called from any thread which marks a profile dirty
+     * @param descending If the highest score should be ranked first
+     */
+    public LeaderboardIndex(String name, ToDoubleFunction<? super E> scoreExtractor, boolean descending) {
+        this.name = name;
+        this.scoreExtractor = scoreExtractor;
+        this.descending = descending;
+        nodes = new HashMap<>();
+        head = new Node(null, 0, false, MAX_LEVEL);
+        level = 1;
+    }
+
+    /**
+     * Sets the score of a loaded profile.
+     * @param data The player data
+     */
+    public void update(E data) {
+        double score = scoreExtractor.applyAsDouble(data);
+        synchronized (this) {
+            set(data.getUniqueId(), score, true);
+        }
+    }
+
+    /**
+     * Sets the score of a player who is not loaded, such as a row read while seeding.
+     * This is ignored if the player's profile has already been added with {@link #update(PlayerProfile)}.
+     * @param uuid The player's UUID
+     * @param score The player's score
+     */
+    public synchronized void put(UUID uuid, double score) {
+        Node node = nodes.get(uuid);
+        if (node != null && node.live) return;
+
+        set(uuid, score, false);
+    }
+
+    /**
+     * Sets the score of a player read while seeding, see {@link #put(UUID, double)}.
+     * @param entry The player's UUID and score, usually read with {@link #ROW_MAPPER}
+     */
+    public void seed(Entry entry) {
+        put(entry.uuid(), entry.score());
+    }
+
+    /**
+     * @param uuid The player's UUID
+     * @return If the player was in this leaderboard
+     */
+    public synchronized boolean remove(UUID uuid) {
+        Node node = nodes.remove(uuid);
+        if (node == null) return false;
+
+        delete(node);
+        return true;
+    }
+
+    /**
+     * @param uuid The player's UUID
+     * @return The player's score or null if they are not in this leaderboard
+     */
+    @Nullable
+    public synchronized Double getScore(UUID uuid) {
+        Node node = nodes.get(uuid);
+        return node == null ? null : node.score;
+    }
+
+    /**
+     * @param uuid The player's UUID
+     * @return The player's rank starting at 1, or -1 if they are not in this leaderboard
+     */
+    public synchronized int getRank(UUID uuid) {
+        Node node = nodes.get(uuid);
+        if (node == null) return -1;
+
+        int rank = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i], node) <= 0) {
+                rank += x.width[i];
+                x = x.next[i];
+            }
+            if (x == node) return rank;
+        }
+        return -1;
+    }
+
+    /**
+     * @param rank The rank starting at 1
+     * @return The entry at the rank or null if there are fewer entries
+     */
+    @Nullable
+    public synchronized Entry getEntry(int rank) {
+        Node node = nodeAt(rank);
+        return node == null ? null : node.toEntry();
+    }
+
+    /**
+     * @param count The number of entries
+     * @return The highest ranked entries in order
+     */
+    public List<Entry> getTop(int count) {
+        return getRange(1, count);
+    }
+
+    /**
+     * Gets a page of entries, such as for a leaderboard menu.
+     * @param fromRank The first rank starting at 1
+     * @param count The maximum number of entries
+     * @return The entries in order
+     */
+    public synchronized List<Entry> getRange(int fromRank, int count) {
+        List<Entry> entries = new ArrayList<>(Math.max(0, Math.min(count, nodes.size())));
+        Node node = fromRank == 1 ? head.next[0] : nodeAt(fromRank);
+        for (int i = 0; i < count && node != null; i++) {
+            entries.add(node.toEntry());
+            node = node.next[0];
+        }
+        return entries;
+    }
+
+    /**
+     * @return The number of players in this leaderboard
+     */
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public synchronized void clear() {
+        nodes.clear();
+        Arrays.fill(head.next, null);
+        Arrays.fill(head.width, 0);
+        level = 1;
+    }
+
+    private void set(UUID uuid, double score, boolean live) {
+        Node node = nodes.get(uuid);
+        if (node != null && Double.compare(node.score, score) == 0) {
+            node.live |= live;
+            return;
+        }
+
+        if (node != null) {
+            nodes.remove(uuid);
+            delete(node);
+            live |= node.live;
+        }
+        nodes.put(uuid, insert(uuid, score, live));
+    }
+
+    /**
+     * Each level's width is the number of entries between a node and its next node on that level.
+     * Summing the widths along a search path gives the rank.
+     */
+    private Node insert(UUID uuid, double score, boolean live) {
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        int nodeLevel = randomLevel();
+        Node node = new Node(uuid, score, live, nodeLevel);
+
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && compare(x.next[i], node) < 0) {
+                rank[i] += x.width[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.width[i] = nodes.size();
+            }
+            level = nodeLevel;
+        }
+
+        for (int i = 0; i < nodeLevel; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.width[i] = update[i].width[i] - (rank[0] - rank[i]);
+            update[i].width[i] = rank[0] - rank[i] + 1;
+        }
+        for (int i = nodeLevel; i < level; i++) {
+            update[i].width[i]++;
+        }
+        return node;
+    }
+
+    private void delete(Node node) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i], node) < 0) {
+                x = x.next[i];
+            }
+
+            if (x.next[i] == node) {
+                x.width[i] += node.width[i] - 1;
+                x.next[i] = node.next[i];
+            } else {
+                x.width[i]--;
+            }
+        }
+
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+    }
+
+    @Nullable
+    private Node nodeAt(int rank) {
+        if (rank < 1 || rank > nodes.size()) return null;
+
+        int traversed = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.width[i] <= rank) {
+                traversed += x.width[i];
+                x = x.next[i];
+            }
+            if (traversed == rank) return x;
+        }
+        return null;
+    }
+
+    private int compare(Node a, Node b) {
+        int result = descending ? Double.compare(b.score, a.score) : Double.compare(a.score, b.score);
+        return result != 0 ? result : a.uuid.compareTo(b.uuid);
+    }
+
+    private static int randomLevel() {
+        int level = 1;
+        while (level < MAX_LEVEL && ThreadLocalRandom.current().nextInt(4) == 0) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * A player's place in a leaderboard.
+     * @param uuid The player's UUID
+     * @param score The player's score
+     */
+    public record Entry(UUID uuid, double score) {}
+
+    private static class Node {
+        private final UUID uuid;
+        private final double score;
+        private boolean live;
+        private final Node[] next;
+        private final int[] width;
+
+        private Node(UUID uuid, double score, boolean live, int level) {
+            this.uuid = uuid;
+            this.score = score;
+            this.live = live;
+            next = new Node[level];
+            width = new int[level];
+        }
+
+        private Entry toEntry() {
+            return new Entry(uuid, score);
+        }
+    }
+}
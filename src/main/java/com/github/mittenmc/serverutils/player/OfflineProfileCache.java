@@ -0,0 +1,560 @@
+package com.github.mittenmc.serverutils.player;
+
+import com.github.mittenmc.serverutils.player.profile.PlayerProfile;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Holds the profiles of offline players with a size and time limit.<p>
+ * When the cache grows past its maximum size, the least recently accessed profiles are evicted.
+ * Profiles which have not been accessed within the time to live are evicted by {@link #evictExpired()}.
+ * Profiles with active {@link com.github.mittenmc.serverutils.player.profile.ProfileViewers} are never evicted,
+ * so the cache may temporarily hold more profiles than its maximum size.<p>
+ * With {@link #enableCompaction(Compactor, long, boolean)}, clean profiles without viewers which have been idle
+ * for a while are serialized into a compact byte form and their objects are released. A profile only counts as clean
+ * if its changes are tracked, see {@link #setDirtyTracking(boolean)}.
+ * These dormant profiles are rehydrated on the next {@link #get(UUID)}, {@link #peek(UUID)} or {@link #remove(UUID)}.
+ * Rehydration creates a new instance, so references to a profile should not be kept once it is offline and unused.<p>
+ * Lookups are safe from any thread. Modifications and evictions should happen on the main thread.
+ * @param <E> The player data type
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class OfflineProfileCache<E extends PlayerProfile> {
+
+    private final Map<UUID, CacheEntry<E>> entries;
+    private final BiConsumer<UUID, E> evictionListener;
+    private final LongSupplier clock;
+    private final Collection<E> valuesView;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LongAdder compactions;
+    private final LongAdder rehydrations;
+    private final AtomicInteger dormantCount;
+    private final AtomicLong dormantBytes;
+    private int maximumSize;
+    private long ttlMillis;
+    private volatile Compactor<E> compactor;
+    private volatile long compactionIdleMillis;
+    private volatile boolean offHeap;
+    private volatile boolean dirtyTracking;
+
+    /**
+     * @param maximumSize The number of profiles to keep before evicting. Use 0 for no limit
+     * @param ttlMillis The time in milliseconds a profile is kept after its last access. Use 0 for no limit
+     * @param evictionListener Called with the UUID and profile of each evicted profile.
+     *                         The profile is null if it was dormant, since dormant profiles are always clean
+     */
+    public OfflineProfileCache(int maximumSize, long ttlMillis, BiConsumer<UUID, E> evictionListener) {
+        this(maximumSize, ttlMillis, evictionListener, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock Returns the current time in milliseconds
+     */
+    OfflineProfileCache(int maximumSize, long ttlMillis, BiConsumer<UUID, E> evictionListener, LongSupplier clock) {
+        this.maximumSize = maximumSize;
+        this.ttlMillis = ttlMillis;
+        this.evictionListener = evictionListener;
+        this.clock = clock;
+        entries = new ConcurrentHashMap<>();
+        valuesView = new ValuesView();
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+        compactions = new LongAdder();
+        rehydrations = new LongAdder();
+        dormantCount = new AtomicInteger();
+        dormantBytes = new AtomicLong();
+    }
+
+    /**
+     * Gets a profile, marks it as recently used and records a hit or miss.
+     * @param uuid The player's UUID
+     * @return The profile or null
+     */
+    @Nullable
+    public E get(UUID uuid) {
+        CacheEntry<E> entry = entries.get(uuid);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        entry.lastAccess = clock.getAsLong();
+        return resolve(uuid, entry);
+    }
+
+    /**
+     * Gets a profile without affecting its eviction order or the statistics.
+     * @param uuid The player's UUID
+     * @return The profile or null
+     */
+    @Nullable
+    public E peek(UUID uuid) {
+        CacheEntry<E> entry = entries.get(uuid);
+        return entry == null ? null : resolve(uuid, entry);
+    }
+
+    /**
+     * @param uuid The player's UUID
+     * @return If the profile is cached
+     */
+    public boolean containsKey(UUID uuid) {
+        return entries.containsKey(uuid);
+    }
+
+    /**
+     * Adds a profile and evicts the least recently used profiles if the cache is over its maximum size.
+     * @param uuid The player's UUID
+     * @param data The profile
+     */
+    public void put(UUID uuid, E data) {
+        CacheEntry<E> previous = entries.put(uuid, new CacheEntry<>(data, clock.getAsLong()));
+        if (previous != null) discardCompacted(previous);
+        if (maximumSize > 0 && entries.size() > maximumSize) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    /**
+     * Removes a profile without calling the eviction listener.
+     * @param uuid The player's UUID
+     * @return The removed profile or null
+     */
+    @Nullable
+    public E remove(UUID uuid) {
+        CacheEntry<E> entry = entries.get(uuid);
+        if (entry == null) return null;
+
+        E data = resolve(uuid, entry);
+        entries.remove(uuid, entry);
+        return data;
+    }
+
+    /**
+     * @return The number of cached profiles
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Dormant profiles are not included since they are always clean and rehydrating them would undo the compaction.
+     * @return An unmodifiable, weakly consistent view of all cached profiles which are not dormant
+     */
+    public Collection<E> values() {
+        return valuesView;
+    }
+
+    /**
+     * Removes every profile which matches without calling the eviction listener. Dormant profiles are skipped.
+     * @param filter The profiles to remove
+     * @return The removed profiles
+     * @see #removeDormant()
+     */
+    public List<E> removeIf(Predicate<E> filter) {
+        List<E> removed = new ArrayList<>();
+        for (Map.Entry<UUID, CacheEntry<E>> entry : entries.entrySet()) {
+            E data = entry.getValue().data;
+            if (data != null && filter.test(data) && entries.remove(entry.getKey(), entry.getValue())) {
+                removed.add(data);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every dormant profile without calling the eviction listener.
+     * @return The UUIDs of the removed profiles
+     */
+    public List<UUID> removeDormant() {
+        List<UUID> removed = new ArrayList<>();
+        for (Map.Entry<UUID, CacheEntry<E>> entry : entries.entrySet()) {
+            if (entry.getValue().data == null && entries.remove(entry.getKey(), entry.getValue())) {
+                discardCompacted(entry.getValue());
+                removed.add(entry.getKey());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every profile without calling the eviction listener.
+     */
+    public void clear() {
+        entries.clear();
+        dormantCount.set(0);
+        dormantBytes.set(0);
+    }
+
+    /**
+     * Evicts every profile without viewers which has not been accessed within the time to live.
+     * @return The number of evicted profiles
+     */
+    public int evictExpired() {
+        if (ttlMillis <= 0) return 0;
+
+        long cutoff = clock.getAsLong() - ttlMillis;
+        int count = 0;
+        for (Map.Entry<UUID, CacheEntry<E>> entry : entries.entrySet()) {
+            if (entry.getValue().lastAccess <= cutoff && evict(entry.getKey(), entry.getValue())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Evicts the oldest profiles until the cache is 10% below its maximum size.
+     * Evicting past the limit means a full cache does not sort its entries on every put.
+     */
+    private void evictLeastRecentlyUsed() {
+        int target = maximumSize - maximumSize / 10;
+
+        List<Map.Entry<UUID, CacheEntry<E>>> candidates = new ArrayList<>(entries.entrySet());
+        candidates.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+
+        for (Map.Entry<UUID, CacheEntry<E>> entry : candidates) {
+            if (entries.size() <= target) break;
+            evict(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return If the profile was evicted
+     */
+    private boolean evict(UUID uuid, CacheEntry<E> entry) {
+        E data = entry.data;
+        if (data != null && !data.getProfileViewers().isEmpty()) return false;
+        if (!entries.remove(uuid, entry)) return false;
+
+        discardCompacted(entry);
+        evictions.increment();
+        evictionListener.accept(uuid, data);
+        return true;
+    }
+
+    /**
+     * Makes profiles dormant once they have not been accessed for the idle time.
+     * Only profiles without viewers and without unsaved changes are compacted.
+     * @param compactor Converts profiles to and from bytes
+     * @param idleMillis The time in milliseconds since the last access before a profile is compacted
+     * @param offHeap If the bytes should be held in direct buffers outside the Java heap
+     */
+    public void enableCompaction(Compactor<E> compactor, long idleMillis, boolean offHeap) {
+        this.compactionIdleMillis = idleMillis;
+        this.offHeap = offHeap;
+        this.compactor = compactor;
+    }
+
+    /**
+     * Stops compacting profiles. Profiles which are already dormant are rehydrated when accessed.
+     */
+    public void disableCompaction() {
+        compactor = null;
+    }
+
+    /**
+     * @return If idle profiles are compacted
+     */
+    public boolean isCompactionEnabled() {
+        return compactor != null;
+    }
+
+    /**
+     * Profiles which change without calling {@link PlayerProfile#markDirty()} look clean, and compacting them would
+     * lose their changes. Compaction therefore only runs once the owner declares that every change is marked.
+     * @param dirtyTracking If every change to the cached profiles calls {@link PlayerProfile#markDirty()}
+     */
+    public void setDirtyTracking(boolean dirtyTracking) {
+        this.dirtyTracking = dirtyTracking;
+    }
+
+    /**
+     * @return If the cached profiles mark every change
+     */
+    public boolean isDirtyTracking() {
+        return dirtyTracking;
+    }
+
+    /**
+     * Compacts every profile without viewers or unsaved changes which has not been accessed within the idle time.
+     * Nothing is compacted without {@link #setDirtyTracking(boolean)}.
+     * This should be called on the main thread.
+     * @return The number of compacted profiles
+     */
+    public int compactIdle() {
+        Compactor<E> compactor = this.compactor;
+        if (compactor == null || !dirtyTracking) return 0;
+
+        long cutoff = clock.getAsLong() - compactionIdleMillis;
+        int count = 0;
+        for (Map.Entry<UUID, CacheEntry<E>> entry : entries.entrySet()) {
+            CacheEntry<E> cacheEntry = entry.getValue();
+            if (cacheEntry.lastAccess <= cutoff && compact(compactor, cacheEntry)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return If the profile was compacted
+     */
+    private boolean compact(Compactor<E> compactor, CacheEntry<E> entry) {
+        E data = entry.data;
+        if (data == null || !dirtyTracking || data.isDirty() || !data.getProfileViewers().isEmpty()) return false;
+
+        byte[] bytes;
+        try {
+            bytes = compactor.compact(data);
+        } catch (Exception e) {
+            return false;
+        }
+        if (bytes == null) return false;
+
+        synchronized (entry) {
+            // The profile may have been accessed or changed while it was serialized
+            if (entry.data != data || data.isDirty()) return false;
+
+            if (offHeap) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+                buffer.put(bytes).flip();
+                entry.compacted = buffer;
+            } else {
+                entry.compacted = bytes;
+            }
+            entry.compactedSize = bytes.length;
+            entry.data = null;
+        }
+        compactions.increment();
+        dormantCount.incrementAndGet();
+        dormantBytes.addAndGet(bytes.length);
+        return true;
+    }
+
+    /**
+     * Gets the profile of an entry, rehydrating it if it is dormant.
+     * If the profile cannot be rehydrated, the entry is removed so the caller loads it again.
+     * Dormant profiles are clean, so nothing is lost.
+     * @return The profile or null if rehydrating failed
+     */
+    @Nullable
+    private E resolve(UUID uuid, CacheEntry<E> entry) {
+        E data = entry.data;
+        if (data != null) return data;
+
+        synchronized (entry) {
+            if (entry.data != null) return entry.data;
+            if (entry.compacted == null) return null;
+
+            Compactor<E> compactor = this.compactor;
+            byte[] bytes = entry.getCompactedBytes();
+            try {
+                data = compactor == null ? null : compactor.expand(uuid, bytes);
+            } catch (Exception e) {
+                data = null;
+            }
+
+            if (data == null) {
+                entries.remove(uuid, entry);
+                discardCompacted(entry);
+                return null;
+            }
+
+            entry.data = data;
+            entry.lastAccess = clock.getAsLong();
+            discardCompacted(entry);
+            rehydrations.increment();
+            return data;
+        }
+    }
+
+    /**
+     * Drops the bytes of a dormant entry and updates the dormant statistics.
+     */
+    private void discardCompacted(CacheEntry<E> entry) {
+        synchronized (entry) {
+            if (entry.compacted == null) return;
+
+            entry.compacted = null;
+            dormantCount.decrementAndGet();
+            dormantBytes.addAndGet(-entry.compactedSize);
+            entry.compactedSize = 0;
+        }
+    }
+
+    /**
+     * @param maximumSize The number of profiles to keep before evicting. Use 0 for no limit
+     */
+    public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+        if (maximumSize > 0 && entries.size() > maximumSize) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    /**
+     * @param ttlMillis The time in milliseconds a profile is kept after its last access. Use 0 for no limit
+     */
+    public void setTTLMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getTTLMillis() {
+        return ttlMillis;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getCompactions() {
+        return compactions.sum();
+    }
+
+    public long getRehydrations() {
+        return rehydrations.sum();
+    }
+
+    /**
+     * @return The number of profiles held in compact form
+     */
+    public int getDormantCount() {
+        return dormantCount.get();
+    }
+
+    /**
+     * @return The total size in bytes of the dormant profiles
+     */
+    public long getDormantBytes() {
+        return dormantBytes.get();
+    }
+
+    /**
+     * @return The fraction of lookups which found a profile or 0 if there have been none
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Resets the hit, miss, eviction, compaction and rehydration counts.
+     */
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        compactions.reset();
+        rehydrations.reset();
+    }
+
+    /**
+     * Converts profiles to and from the compact form of dormant profiles.
+     * @param <E> The player data type
+     */
+    public interface Compactor<E extends PlayerProfile> {
+
+        /**
+         * @param data The profile
+         * @return The serialized profile or null if this profile should not be compacted
+         * @throws Exception If the profile could not be serialized
+         */
+        @Nullable
+        byte[] compact(E data) throws Exception;
+
+        /**
+         * @param uuid The player's UUID
+         * @param bytes The bytes returned by {@link #compact(PlayerProfile)}
+         * @return A new profile equal to the one which was compacted, or null if it could not be read
+         * @throws Exception If the profile could not be deserialized
+         */
+        @Nullable
+        E expand(UUID uuid, byte[] bytes) throws Exception;
+    }
+
+    /**
+     * Holds either a profile or, while dormant, its compacted bytes in a byte array or direct buffer.
+     */
+    private static class CacheEntry<E> {
+        private volatile E data;
+        private Object compacted;
+        private int compactedSize;
+        private volatile long lastAccess;
+
+        private CacheEntry(E data, long lastAccess) {
+            this.data = data;
+            this.lastAccess = lastAccess;
+        }
+
+        private byte[] getCompactedBytes() {
+            if (compacted instanceof ByteBuffer buffer) {
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.duplicate().get(bytes);
+                return bytes;
+            }
+            return (byte[]) compacted;
+        }
+    }
+
+    private class ValuesView extends AbstractCollection<E> {
+
+        @Override
+        public Iterator<E> iterator() {
+            Iterator<CacheEntry<E>> iterator = entries.values().iterator();
+            return new Iterator<>() {
+                private E next;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && iterator.hasNext()) {
+                        next = iterator.next().data;
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public E next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+
+                    E data = next;
+                    next = null;
+                    return data;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return Math.max(0, entries.size() - dormantCount.get());
+        }
+    }
+}
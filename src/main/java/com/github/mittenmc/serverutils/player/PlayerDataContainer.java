@@ -1,41 +1,265 @@
 package com.github.mittenmc.serverutils.player;
 
+import com.github.mittenmc.serverutils.ServerUtils;
+import com.github.mittenmc.serverutils.database.DatabaseConnectionPool;
 import com.github.mittenmc.serverutils.player.profile.PlayerProfile;
+import com.github.mittenmc.serverutils.player.ContainerMetrics.Operation;
+import com.github.mittenmc.serverutils.player.profile.ProfileDelta;
+import com.github.mittenmc.serverutils.player.profile.ProfileSnapshot;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.Nullable;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * Manages all player data belonging to a plugin.
+ * Manages all player data belonging to a plugin.<p>
+ * An autosave can be started with {@link #startAutoSave(long, long)}. It only saves profiles which were
+ * marked with {@link PlayerProfile#markDirty()} and spreads the saves over multiple ticks.<p>
+ * With {@link #enablePreLoginPrefetch(long)}, data is loaded while the player logs in so it is available on join.<p>
+ * Profiles are saved through {@link #saveProfile(PlayerProfile)}. Profiles which implement {@link PlayerProfile#snapshot()}
+ * are copied on the main thread and written on a save thread in order per player.<p>
+ * On a network, {@link #enableProfileLeases(ProfileLeaseManager, Duration)} makes a joining player's data wait
+ * until the server they came from has saved it.<p>
+ * Loads run on a capped pool of loader threads, see {@link #setMaxConcurrentLoads(DatabaseConnectionPool)}. Joining players are loaded
+ * before offline lookups, so a wave of reconnects queues instead of exhausting the database pool.<p>
+ * Load and save times are recorded in {@link ContainerMetrics}. All containers are listed by {@link #getContainers()}.<p>
+ * By default, loaded data may only be accessed from the main thread.
+ * Containers created in concurrent mode allow reads from any thread. Modifications still happen on the main thread.<p>
+ * Offline profiles are held in an {@link OfflineProfileCache} which evicts unused profiles by size and age.
+ * Evicted profiles are always saved, unless the container declares with {@link #enableDirtyTracking()} that every change
+ * calls {@link PlayerProfile#markDirty()}. Then only dirty profiles are saved.
+ * Containers of several plugins can load a joining player together on one connection, see {@link #useJoinPipeline(DatabaseConnectionPool)}.
+ * Loaded profiles keep any registered {@link LeaderboardIndex} up to date, see {@link #addLeaderboard(LeaderboardIndex)}.
+ * Idle offline profiles may also be compacted to save memory, see {@link #enableProfileCompaction(Duration, boolean)}.
  * @param <E> The player data type
  * @author GavvyDizzle
- * @version 1.1.5
+ * @version 1.1.8
  * @since 1.1.2
  */
 @SuppressWarnings("unused")
 public abstract class PlayerDataContainer<E extends PlayerProfile> implements Listener {
 
+    private static final List<PlayerDataContainer<?>> containers = new CopyOnWriteArrayList<>();
+    private static final int DEFAULT_OFFLINE_CACHE_SIZE = 500;
+    private static final long DEFAULT_OFFLINE_CACHE_TTL = 10 * 60 * 1000;
+    private static final long OFFLINE_CACHE_SWEEP_TICKS = 1200;
+    private static final int DEFAULT_MAX_CONCURRENT_LOADS = 4;
+    private static final int SAVER_THREADS = 2;
+    private static final int SHUTDOWN_SAVER_THREADS = 8;
+
     private final JavaPlugin instance;
     private final Map<UUID, E> players;
-    private final Map<UUID, E> offlinePlayers;
+    private final OfflineProfileCache<E> offlinePlayers;
+    private final Map<UUID, CompletableFuture<E>> inFlightLoads;
+    private final ThreadPoolExecutor loadExecutor;
+    private final AtomicLong loadSequence;
+    private final SnapshotSaveQueue snapshotSaves;
+    private final Map<UUID, E> releasing;
+    private final ThreadPoolExecutor saveExecutor;
+    private final boolean concurrent;
+    private final Collection<E> allPlayerDataView;
+    private final Set<E> autoSaveQueue;
+    private BukkitTask autoSaveTask;
+    private long autoSaveTick;
+    private final PreLoginStage<E> preLoginData;
+    private BukkitTask preLoginSweepTask;
+    private final BukkitTask offlineCacheSweepTask;
+    private volatile boolean shutdown;
+    private volatile ProfileLeaseManager leases;
+    private volatile Duration leaseTimeout;
+    private final ContainerMetrics metrics;
+    private final List<LeaderboardIndex<E>> leaderboards;
+    private volatile DatabaseConnectionPool joinPool;
+    private volatile DatabaseConnectionPool databasePool;
+    private final boolean savesSnapshots;
+    private volatile boolean snapshotSupportChecked;
+    private volatile boolean dirtyTracking;
+    private volatile boolean loadConcurrencySet;
 
     public PlayerDataContainer(JavaPlugin instance) {
+        this(instance, false);
+    }
+
+    /**
+     * In concurrent mode, loaded data is stored in concurrent maps. Any thread may then read profiles without
+     * locking, and {@link #getAllPlayerData()} returns a live view instead of a copy.
+     * @param instance The plugin
+     * @param concurrent If loaded data should be readable from any thread
+     */
+    public PlayerDataContainer(JavaPlugin instance, boolean concurrent) {
         this.instance = instance;
+        this.concurrent = concurrent;
         instance.getServer().getPluginManager().registerEvents(this, instance);
-        players = new HashMap<>();
-        offlinePlayers = new HashMap<>();
+        players = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+        offlinePlayers = new OfflineProfileCache<>(DEFAULT_OFFLINE_CACHE_SIZE, DEFAULT_OFFLINE_CACHE_TTL, this::onOfflineProfileEvicted);
+        offlineCacheSweepTask = Bukkit.getScheduler().runTaskTimer(instance, this::sweepOfflineProfiles, OFFLINE_CACHE_SWEEP_TICKS, OFFLINE_CACHE_SWEEP_TICKS);
+        inFlightLoads = new ConcurrentHashMap<>();
+        loadExecutor = createExecutor("profile-loader", DEFAULT_MAX_CONCURRENT_LOADS, new PriorityBlockingQueue<>());
+        loadSequence = new AtomicLong();
+        releasing = new ConcurrentHashMap<>();
+        saveExecutor = createExecutor("profile-saver", SAVER_THREADS, new LinkedBlockingQueue<>());
+        snapshotSaves = new SnapshotSaveQueue(saveExecutor, this::writeSnapshot);
+        metrics = new ContainerMetrics(this);
+        savesSnapshots = overridesSaveSnapshot(getClass());
+        leaderboards = new CopyOnWriteArrayList<>();
+        containers.add(this);
+        allPlayerDataView = concurrent ? new AllPlayerDataView() : null;
+        autoSaveQueue = new LinkedHashSet<>();
+        preLoginData = new PreLoginStage<>(this::releasePrefetchedLease);
+    }
+
+    /**
+     * Profiles are loaded and saved on small pools of daemon threads instead of the common fork-join pool,
+     * which blocking database calls would starve. Idle threads stop after a minute.
+     * @param name The thread name suffix
+     * @param threads The maximum number of threads
+     * @param queue The queue holding waiting tasks
+     * @return The executor
+     */
+    private ThreadPoolExecutor createExecutor(String name, int threads, BlockingQueue<Runnable> queue) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                queue, runnable -> {
+                    Thread thread = new Thread(runnable, instance.getName() + "-" + name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Queues a load on the loader threads. Loads of online players run before loads of offline players,
+     * and loads of the same priority run in the order they were queued.
+     * @param priority The priority of the load
+     * @param load The load
+     * @throws RejectedExecutionException If the container is shut down
+     */
+    private void submitLoad(LoadPriority priority, Runnable load) {
+        loadExecutor.execute(new PrioritizedLoad(priority, loadSequence.getAndIncrement(), load, null));
+    }
+
+    /**
+     * Queues a load on the loader threads like {@link #submitLoad(LoadPriority, Runnable)} and returns its result.
+     * The future is cancelled if the container shuts down before the load starts, so callers may wait on it.
+     * @param priority The priority of the load
+     * @param load The load
+     * @return A future which completes with the result of the load
+     */
+    private <T> CompletableFuture<T> supplyLoad(LoadPriority priority, Supplier<T> load) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                future.complete(load.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+        try {
+            loadExecutor.execute(new PrioritizedLoad(priority, loadSequence.getAndIncrement(), task, future));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Limits how many loads run at once. Loads past the limit wait in a queue, online players first.
+     * This should be at most the size of the database pool, so a join storm queues here instead of
+     * timing out while waiting for a connection.
+     * Until this is called, the limit is {@value DEFAULT_MAX_CONCURRENT_LOADS}, or sized from the pool passed to
+     * {@link #useJoinPipeline(DatabaseConnectionPool)}.
+     * @param maxConcurrentLoads The maximum number of loads which run at once
+     * @see #setMaxConcurrentLoads(DatabaseConnectionPool)
+     */
+    public void setMaxConcurrentLoads(int maxConcurrentLoads) {
+        loadConcurrencySet = true;
+        resizeLoaders(maxConcurrentLoads);
+    }
+
+    /**
+     * Sizes the number of loads which run at once from the pool this container loads from.
+     * If the pool has a read replica, loads are assumed to read from it and may use all of its connections.
+     * Otherwise, one connection of the primary is left free so saves and leases are not starved by a join storm.
+     * @param pool The pool this container loads from
+     */
+    public void setMaxConcurrentLoads(DatabaseConnectionPool pool) {
+        setDatabasePool(pool);
+        setMaxConcurrentLoads(getLoadConcurrency(pool));
+    }
+
+    /**
+     * Sets the pool this container saves to. Once a profile is saved, its player is passed to
+     * {@link DatabaseConnectionPool#markWritten(UUID)}, so loading them again with
+     * {@link DatabaseConnectionPool#getReadConnection(UUID)} reads the saved data from the primary.
+     * This is also set by {@link #setMaxConcurrentLoads(DatabaseConnectionPool)} and {@link #useJoinPipeline(DatabaseConnectionPool)}.
+     * @param pool The pool this container saves to
+     */
+    public void setDatabasePool(DatabaseConnectionPool pool) {
+        databasePool = pool;
+    }
+
+    /**
+     * Marks a saved player as written in the database pool, if one is set.
+     */
+    private void markWritten(UUID uuid) {
+        DatabaseConnectionPool pool = databasePool;
+        if (pool != null) pool.markWritten(uuid);
+    }
+
+    private static int getLoadConcurrency(DatabaseConnectionPool pool) {
+        return pool.hasReadReplica() ? pool.getMaximumReadPoolSize() : pool.getMaximumPoolSize() - 1;
+    }
+
+    private void resizeLoaders(int maxConcurrentLoads) {
+        int threads = Math.max(1, maxConcurrentLoads);
+        if (threads > loadExecutor.getMaximumPoolSize()) {
+            loadExecutor.setMaximumPoolSize(threads);
+            loadExecutor.setCorePoolSize(threads);
+        } else {
+            loadExecutor.setCorePoolSize(threads);
+            loadExecutor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * @return The maximum number of loads which run at once
+     */
+    public int getMaxConcurrentLoads() {
+        return loadExecutor.getMaximumPoolSize();
     }
 
     /**
@@ -47,6 +271,46 @@ public abstract class PlayerDataContainer<E extends PlayerProfile> implements Li
     @Nullable
     public abstract E loadPlayerData(Player player);
 
+    /**
+     * A request for a player's data to be loaded who just joined the server, using a connection shared with
+     * the other containers in the {@link JoinPipeline}. The connection must not be closed.
+     * This method is always called asynchronously. The default implementation calls {@link #loadPlayerData(Player)},
+     * which works but does not share the connection.
+     * @param player The player who just joined
+     * @param conn A connection from the pool passed to {@link #useJoinPipeline(DatabaseConnectionPool)}
+     * @return The player data or null
+     * @throws SQLException If the data could not be read
+     */
+    @Nullable
+    public E loadPlayerData(Player player, Connection conn) throws SQLException {
+        return loadPlayerData(player);
+    }
+
+    /**
+     * A request for a player's data to be loaded who is logging in.
+     * This is called from {@link AsyncPlayerPreLoginEvent}, before a {@link Player} object exists.
+     * The default implementation calls {@link #loadOfflinePlayerData(OfflinePlayer)}. The profile's player is loaded on join.
+     * @param uuid The player's UUID
+     * @param name The player's name
+     * @return The player data or null
+     */
+    @Nullable
+    public E loadPreLoginPlayerData(UUID uuid, String name) {
+        return loadOfflinePlayerData(Bukkit.getOfflinePlayer(uuid));
+    }
+
+    /**
+     * A request for the data of many online players to be loaded at once, such as with a single {@code IN (...)} query.
+     * This is used by {@link #initializeOnlinePlayers()} and should always be called asynchronously!
+     * Players missing from the returned map are loaded individually with {@link #loadPlayerData(Player)}.
+     * @param players The players to load
+     * @return The player data by UUID or null if bulk loading is not supported
+     */
+    @Nullable
+    public Map<UUID, E> loadPlayerDataBatch(Collection<Player> players) {
+        return null;
+    }
+
     /**
      * A request for a player's data to be loaded who is offline.
      * This method should always be called asynchronously!
@@ -63,59 +327,588 @@ public abstract class PlayerDataContainer<E extends PlayerProfile> implements Li
      */
     public abstract void savePlayerData(E data);
 
+    /**
+     * A request for only the changed fields of a player's data to be saved.
+     * This is called instead of {@link #savePlayerData(PlayerProfile)} when every change since the last save
+     * was marked with {@link PlayerProfile#markDirty(String)}, so implementations can issue narrow updates.
+     * The default implementation saves the whole profile.
+     * @param data The player data
+     * @param delta The fields which changed since the last save. This is only empty if the profile is clean and
+     *              the container tracks changes, see {@link #enableDirtyTracking()}
+     */
+    public void savePlayerDataDelta(E data, ProfileDelta delta) {
+        savePlayerData(data);
+    }
+
     /**
      * Saves the player data of all loaded profiles.
      * This will be called internally when the player's data is fully released.
+     * @see #shutdown(Duration)
      */
     public abstract void saveAllPlayerData();
 
+    /**
+     * A request for a profile snapshot to be saved. This is called on a save thread, never on the main thread.
+     * Snapshots of the same player are saved one at a time in the order they were taken.
+     * {@link ProfileSnapshot#getDelta()} holds every field changed since the last successful save,
+     * including those of earlier snapshots which are still being written or were skipped.
+     * A skipped snapshot is never reported as saved on its own. Its save completes with the result of the newer one.
+     * This must be overridden if {@link PlayerProfile#snapshot()} is. The container checks this when the first
+     * profile is added and throws an {@link IllegalStateException} if a profile returns a snapshot it cannot save.
+     * @param snapshot The snapshot returned by {@link PlayerProfile#snapshot()}
+     * @return If the snapshot was saved
+     * @throws Exception If the snapshot could not be saved
+     */
+    protected boolean saveSnapshot(ProfileSnapshot snapshot) throws Exception {
+        // Never called, since takeSnapshot rejects snapshots unless this is overridden
+        return false;
+    }
+
+    /**
+     * @param type The container class
+     * @return If the class or one of its superclasses overrides {@link #saveSnapshot(ProfileSnapshot)}
+     */
+    private static boolean overridesSaveSnapshot(Class<?> type) {
+        for (Class<?> c = type; c != null && c != PlayerDataContainer.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("saveSnapshot", ProfileSnapshot.class);
+                return true;
+            } catch (NoSuchMethodException ignored) {
+                // Check the superclass
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes a snapshot of a profile for saving.
+     * @param data The player data
+     * @return The snapshot or null if the profile is saved directly
+     * @throws IllegalStateException If the profile returns a snapshot but this container does not override {@link #saveSnapshot(ProfileSnapshot)}
+     */
+    @Nullable
+    private ProfileSnapshot takeSnapshot(E data) {
+        ProfileSnapshot snapshot = data.snapshot();
+        if (snapshot != null && !savesSnapshots) {
+            throw new IllegalStateException(data.getClass().getName() + " returns profile snapshots, but " +
+                    getClass().getName() + " does not override saveSnapshot to save them");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Saves a profile and clears its dirty flag if the save succeeded.
+     * The default implementation calls {@link #savePlayerDataDelta(PlayerProfile, ProfileDelta)} if the profile knows
+     * which fields changed, otherwise {@link #savePlayerData(PlayerProfile)}, and treats any exception as a failure.
+     * An empty delta only means nothing changed if the container tracks changes. Otherwise the whole profile is written.
+     * Override this if saving can fail without throwing.
+     * @param data The player data
+     * @param delta The changes being saved
+     * @return If the data was saved
+     */
+    protected boolean attemptSave(E data, ProfileDelta delta) {
+        try {
+            if (delta.isFull() || (delta.isEmpty() && !dirtyTracking)) {
+                savePlayerData(data);
+            } else {
+                savePlayerDataDelta(data, delta);
+            }
+            return true;
+        } catch (Exception e) {
+            instance.getLogger().log(Level.SEVERE, "Failed to save player data of " + data.getUniqueId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Saves a profile and marks the saved version on success. This must be called on the main thread.<p>
+     * If the profile returns a {@link ProfileSnapshot}, the snapshot is written by {@link #saveSnapshot(ProfileSnapshot)}
+     * on a save thread. Saves of the same player run in order, and a snapshot is skipped if a newer one is already
+     * waiting, so an older state never overwrites a newer one. A skipped snapshot's save completes with the result
+     * of the newer save. Requesting a save of a version which is already waiting returns the waiting save.
+     * Profiles which never call {@link PlayerProfile#markDirty()} stay at version 0, so their saves cannot be compared
+     * and every request writes a new snapshot.<p>
+     * Otherwise, the profile is saved immediately with {@link #attemptSave(PlayerProfile, ProfileDelta)}.
+     * @param data The player data
+     * @return A future which completes with whether the data was saved
+     */
+    public CompletableFuture<Boolean> saveProfile(E data) {
+        return saveProfile(data, false);
+    }
+
+    /**
+     * @param data The player data
+     * @param offMainThread If profiles without snapshots should also be saved on a save thread.
+     *                      This is only safe while the main thread is blocked, such as during {@link #shutdown(Duration)}
+     * @return A future which completes with whether the data was saved
+     */
+    private CompletableFuture<Boolean> saveProfile(E data, boolean offMainThread) {
+        updateLeaderboards(data);
+
+        ProfileSnapshot snapshot = takeSnapshot(data);
+        if (snapshot == null) {
+            ProfileDelta delta = data.getDelta();
+            long version = delta.getVersion();
+            Supplier<Boolean> save = () -> {
+                long start = metrics.start(Operation.SAVE);
+                boolean saved = false;
+                try {
+                    saved = attemptSave(data, delta);
+                } finally {
+                    metrics.finish(Operation.SAVE, start, saved);
+                }
+                if (saved) {
+                    data.markSaved(version);
+                    markWritten(data.getUniqueId());
+                }
+                return saved;
+            };
+            return offMainThread ? CompletableFuture.supplyAsync(save, saveExecutor) : CompletableFuture.completedFuture(save.get());
+        }
+
+        return snapshotSaves.save(data, snapshot);
+    }
+
+    /**
+     * Writes a snapshot and records it in the metrics. Runs on a save thread.
+     * @param snapshot The snapshot
+     * @return If the snapshot was saved
+     */
+    private boolean writeSnapshot(ProfileSnapshot snapshot) {
+        long start = metrics.start(Operation.SAVE);
+        boolean saved = false;
+        try {
+            saved = saveSnapshot(snapshot);
+            if (saved) markWritten(snapshot.getUniqueId());
+            return saved;
+        } catch (Exception e) {
+            instance.getLogger().log(Level.SEVERE, "Failed to save player data of " + snapshot.getUniqueId(), e);
+            return false;
+        } finally {
+            metrics.finish(Operation.SAVE, start, saved);
+        }
+    }
+
+    /**
+     * Starts saving dirty profiles periodically. Any previous autosave is stopped.<p>
+     * Every period, all dirty profiles which are not already waiting are queued. The queue is then saved in
+     * equal slices over the spread, so a full server does not save every profile in the same tick.
+     * Profiles which were saved some other way before their turn are skipped.
+     * Profiles are saved with {@link #saveProfile(PlayerProfile)}. Profiles without snapshots are saved on the
+     * main thread, so {@link #savePlayerData(PlayerProfile)} should hand the write off to the database.
+     * @param periodTicks The number of ticks between autosaves
+     * @param spreadTicks The number of ticks to spread each autosave over
+     */
+    public void startAutoSave(long periodTicks, long spreadTicks) {
+        stopAutoSave();
+
+        long period = Math.max(1, periodTicks);
+        long spread = Math.max(1, Math.min(spreadTicks, period));
+        autoSaveTick = 0;
+        autoSaveTask = Bukkit.getScheduler().runTaskTimer(instance, () -> {
+            if (++autoSaveTick % period == 0) {
+                for (E data : players.values()) {
+                    if (data.isDirty()) autoSaveQueue.add(data);
+                }
+                for (E data : offlinePlayers.values()) {
+                    if (data.isDirty()) autoSaveQueue.add(data);
+                }
+            }
+            if (autoSaveQueue.isEmpty()) return;
+
+            // Enough per tick to finish the queue by the end of the spread
+            long ticksLeft = spread - (autoSaveTick % period) % spread;
+            long count = (autoSaveQueue.size() + ticksLeft - 1) / ticksLeft;
+
+            Iterator<E> iterator = autoSaveQueue.iterator();
+            while (count-- > 0 && iterator.hasNext()) {
+                E data = iterator.next();
+                iterator.remove();
+                if (data.isDirty()) saveProfile(data);
+            }
+        }, 1, 1);
+    }
+
+    /**
+     * Stops the autosave. Queued profiles are not saved.
+     */
+    public void stopAutoSave() {
+        if (autoSaveTask != null) {
+            autoSaveTask.cancel();
+            autoSaveTask = null;
+        }
+        autoSaveQueue.clear();
+    }
+
+    /**
+     * Immediately saves every loaded profile which is dirty.
+     * Unlike {@link #saveAllPlayerData()}, unchanged profiles are not written.
+     * @return A future which completes with the number of profiles which failed to save
+     */
+    public CompletableFuture<Integer> saveDirtyPlayerData() {
+        autoSaveQueue.clear();
+
+        List<CompletableFuture<Boolean>> saves = new ArrayList<>();
+        for (E data : getAllPlayerData()) {
+            if (data.isDirty()) saves.add(saveProfile(data));
+        }
+
+        return CompletableFuture.allOf(saves.toArray(new CompletableFuture[0])).handle((result, error) -> {
+            int failed = 0;
+            for (CompletableFuture<Boolean> save : saves) {
+                if (save.isCompletedExceptionally() || !save.join()) failed++;
+            }
+            return failed;
+        });
+    }
+
     /**
      * Some players may be online when the plugin starts.
-     * This will initiate a {@link #loadPlayerData(Player)} for each online player.
+     * This will load them all with {@link #loadPlayerDataBatch(Collection)} if it is implemented.
+     * Otherwise, each player is loaded with {@link #loadPlayerData(Player)} on the loader threads.
+     * All loaded data is added in a single tick.
      */
     public void initializeOnlinePlayers() {
-        Bukkit.getServer().getScheduler().runTaskAsynchronously(instance, () -> {
-            List<E> playerData = new ArrayList<>();
+        List<Player> onlinePlayers = new ArrayList<>(instance.getServer().getOnlinePlayers());
+        if (onlinePlayers.isEmpty()) return;
 
-            for (Player player : instance.getServer().getOnlinePlayers()) {
-                E newPlayerData = loadPlayerData(player);
-                if (newPlayerData == null) {
-                    instance.getLogger().log(Level.SEVERE, "Failed to load online player data ("  + playerData.size() + "/" + Bukkit.getOnlinePlayers().size() + " have been loaded)");
-                    break;
+        Bukkit.getServer().getScheduler().runTaskAsynchronously(instance, () -> {
+            Map<UUID, E> playerData = new HashMap<>();
+            if (leases != null) {
+                for (Player player : onlinePlayers) {
+                    acquireLease(player.getUniqueId());
                 }
-                playerData.add(newPlayerData);
+            }
+
+            Map<UUID, E> batch = null;
+            try {
+                batch = loadPlayerDataBatch(onlinePlayers);
+            } catch (Exception e) {
+                instance.getLogger().log(Level.SEVERE, "Failed to bulk load online player data. Loading players individually", e);
+            }
+            if (batch != null) {
+                playerData.putAll(batch);
+            }
+
+            List<Player> remaining = new ArrayList<>();
+            for (Player player : onlinePlayers) {
+                if (!playerData.containsKey(player.getUniqueId())) remaining.add(player);
+            }
+            playerData.putAll(loadInParallel(remaining));
+
+            if (playerData.size() < onlinePlayers.size()) {
+                instance.getLogger().log(Level.SEVERE, "Failed to load online player data ("  + playerData.size() + "/" + onlinePlayers.size() + " have been loaded)");
             }
 
             // Add to the map synchronously to avoid any potential issues
             Bukkit.getServer().getScheduler().runTask(instance, () -> {
-                for (E data : playerData) {
-                    players.put(data.getUniqueId(), data);
+                if (shutdown) return;
+
+                for (Player player : onlinePlayers) {
+                    E data = playerData.get(player.getUniqueId());
+                    if (data == null) continue;
+
+                    // Players who left while loading are dropped like in publishJoinedPlayer
+                    if (!player.isOnline()) {
+                        if (leases != null) leases.releaseAsync(player.getUniqueId());
+                    } else if (players.putIfAbsent(player.getUniqueId(), data) == null) {
+                        track(data);
+                    }
                 }
             });
         });
     }
 
+    /**
+     * Calls {@link #loadPlayerData(Player)} and records it in the metrics.
+     * @param player The player
+     * @return The player data or null
+     */
+    @Nullable
+    private E timedLoad(Player player) {
+        E data = null;
+        long start = metrics.start(Operation.LOAD);
+        try {
+            data = loadPlayerData(player);
+            return data;
+        } finally {
+            metrics.finish(Operation.LOAD, start, data != null);
+        }
+    }
+
+    /**
+     * Calls {@link #loadOfflinePlayerData(OfflinePlayer)} and records it in the metrics.
+     * @param offlinePlayer The offline player
+     * @return The player data or null
+     */
+    @Nullable
+    private E timedOfflineLoad(OfflinePlayer offlinePlayer) {
+        E data = null;
+        long start = metrics.start(Operation.OFFLINE_LOAD);
+        try {
+            data = loadOfflinePlayerData(offlinePlayer);
+            return data;
+        } finally {
+            metrics.finish(Operation.OFFLINE_LOAD, start, data != null);
+        }
+    }
+
+    /**
+     * Calls {@link #loadPlayerData(Player)} for each player on the loader threads and waits for all of them.
+     * @param players The players to load
+     * @return The data of every player which loaded
+     */
+    private Map<UUID, E> loadInParallel(List<Player> players) {
+        Map<UUID, E> playerData = new HashMap<>();
+        if (players.isEmpty()) return playerData;
+
+        List<CompletableFuture<E>> futures = new ArrayList<>();
+        for (Player player : players) {
+            futures.add(supplyLoad(LoadPriority.ONLINE, () -> timedLoad(player)));
+        }
+
+        for (CompletableFuture<E> future : futures) {
+            try {
+                E data = future.join();
+                if (data != null) playerData.put(data.getUniqueId(), data);
+            } catch (CompletionException | CancellationException e) {
+                instance.getLogger().log(Level.SEVERE, "Failed to load online player data", e.getCause());
+            }
+        }
+        return playerData;
+    }
+
+    /**
+     * Starts loading player data during {@link AsyncPlayerPreLoginEvent} instead of on join.
+     * The event already runs off the main thread, so the load delays the login instead of the data.
+     * The load waits in the loader queue with the loads of joining players, see {@link #setMaxConcurrentLoads(int)}.
+     * Loaded data is kept for the time to live and is discarded if the player does not join in time or is denied.
+     * The prefetch takes the player's profile lease, which is released again whenever the data is discarded.
+     * @param ttlTicks The number of ticks prefetched data is kept before it is discarded
+     */
+    public void enablePreLoginPrefetch(long ttlTicks) {
+        disablePreLoginPrefetch();
+
+        preLoginData.setTimeToLive(Math.max(1, ttlTicks) * 50);
+        preLoginSweepTask = Bukkit.getScheduler().runTaskTimer(instance, () -> preLoginData.expire(System.currentTimeMillis()), ttlTicks, ttlTicks);
+    }
+
+    /**
+     * Stops prefetching player data on login and discards any data which is waiting.
+     */
+    public void disablePreLoginPrefetch() {
+        if (preLoginSweepTask != null) {
+            preLoginSweepTask.cancel();
+            preLoginSweepTask = null;
+        }
+        preLoginData.clear();
+    }
+
+    /**
+     * @return If player data is loaded during login
+     */
+    public boolean isPreLoginPrefetchEnabled() {
+        return preLoginData.isEnabled();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPreLogin(AsyncPlayerPreLoginEvent e) {
+        if (!preLoginData.isEnabled() || e.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+
+        // A player logging in from another location still has a session which will save on quit.
+        // Loading now could read data from before that save
+        if (Bukkit.getPlayer(e.getUniqueId()) != null) return;
+        // The player's last session may still be saving, or their data is loaded offline. That profile is reused on join instead
+        if (releasing.containsKey(e.getUniqueId()) || offlinePlayers.containsKey(e.getUniqueId()) || inFlightLoads.containsKey(e.getUniqueId())) return;
+
+        // Queued with joining players so a login storm is limited like any other load
+        CompletableFuture<E> load = supplyLoad(LoadPriority.ONLINE, () -> {
+            acquireLease(e.getUniqueId());
+
+            E loaded = null;
+            long start = metrics.start(Operation.LOAD);
+            try {
+                loaded = loadPreLoginPlayerData(e.getUniqueId(), e.getName());
+                return loaded;
+            } finally {
+                metrics.finish(Operation.LOAD, start, loaded != null);
+            }
+        });
+
+        E data = null;
+        try {
+            data = load.join();
+        } catch (CancellationException ex) {
+            // Discarded from the queue before the lease was taken
+            return;
+        } catch (CompletionException ex) {
+            instance.getLogger().log(Level.SEVERE, "Failed to prefetch player data. It will be loaded on join", ex.getCause());
+        }
+        preLoginData.offer(e.getUniqueId(), data, System.currentTimeMillis());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLogin(PlayerLoginEvent e) {
+        if (e.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+            preLoginData.discard(e.getPlayer().getUniqueId());
+        }
+    }
+
+    /**
+     * Releases the lease taken by a prefetch whose data was discarded, unless the player's data was loaded
+     * some other way since then and still needs it. The check runs on the main thread.
+     * @param uuid The player's UUID
+     */
+    private void releasePrefetchedLease(UUID uuid) {
+        ProfileLeaseManager leases = this.leases;
+        if (leases == null || !leases.isHeld(uuid)) return;
+
+        if (!Bukkit.isPrimaryThread()) {
+            // Once disabled, shutdown stops renewing the lease and it expires
+            if (instance.isEnabled()) Bukkit.getScheduler().runTask(instance, () -> releasePrefetchedLease(uuid));
+            return;
+        }
+        if (Bukkit.getPlayer(uuid) != null || hasLoadedData(uuid) || inFlightLoads.containsKey(uuid)) return;
+
+        leases.releaseAsync(uuid);
+    }
+
     @EventHandler
     public void onJoin(PlayerJoinEvent e) {
         E playerData = offlinePlayers.remove(e.getPlayer().getUniqueId());
+        if (playerData == null) playerData = releasing.remove(e.getPlayer().getUniqueId());
+        E staged = preLoginData.claim(e.getPlayer().getUniqueId(), System.currentTimeMillis());
+
+        // Loaded offline data may have unsaved changes, so it always wins over prefetched data
+        if (playerData == null) playerData = staged;
 
         if (playerData != null) {
             playerData.loadPlayer();
             players.put(e.getPlayer().getUniqueId(), playerData);
+            track(playerData);
+
+            if (leases != null && !leases.isHeld(e.getPlayer().getUniqueId())) {
+                Bukkit.getServer().getScheduler().runTaskAsynchronously(instance, () -> acquireLease(e.getPlayer().getUniqueId()));
+            }
+        } else if (joinPool != null) {
+            ServerUtils.getInstance().getJoinPipeline().request(e.getPlayer(), this, joinPool);
         } else {
-            Bukkit.getServer().getScheduler().runTaskAsynchronously(instance, () -> {
-                E newPlayerData = loadPlayerData(e.getPlayer());
-                if (newPlayerData == null) {
-                    instance.getLogger().log(Level.SEVERE, "Failed to load player data. See issues above (hopefully there are some...)");
-                    return;
-                }
+            loadWithoutPipeline(e.getPlayer());
+        }
+    }
 
-                // Add to the map synchronously to avoid any potential issues
-                Bukkit.getServer().getScheduler().runTask(instance, () -> players.put(e.getPlayer().getUniqueId(), newPlayerData));
-            });
+    /**
+     * Queues the load of a player who joined on this container's loader threads.
+     * @param player The player
+     */
+    void loadWithoutPipeline(Player player) {
+        try {
+            submitLoad(LoadPriority.ONLINE, () -> loadJoinedPlayer(player));
+        } catch (RejectedExecutionException ignored) {
+            // The container is shut down
         }
     }
 
+    /**
+     * Loads the data of a player who joined. Runs on a loader thread.
+     * Players who left while waiting in the load queue are skipped.
+     * @param player The player
+     */
+    private void loadJoinedPlayer(Player player) {
+        if (!player.isOnline()) return;
+
+        acquireLease(player.getUniqueId());
+        E newPlayerData = timedLoad(player);
+        if (newPlayerData == null) {
+            instance.getLogger().log(Level.SEVERE, "Failed to load player data. See issues above (hopefully there are some...)");
+            return;
+        }
+
+        // Add to the map synchronously to avoid any potential issues
+        Bukkit.getServer().getScheduler().runTask(instance, () -> publishJoinedPlayer(player, newPlayerData));
+    }
+
+    /**
+     * Loads the data of a player who joined on a connection shared by the {@link JoinPipeline}. Runs on a pipeline thread.
+     * The pipeline has already taken the player's lease with {@link #acquireLease(UUID)}.
+     * @param player The player
+     * @param conn The shared connection
+     * @return The task which adds the data on the main thread or null if nothing was loaded
+     */
+    @Nullable
+    Runnable loadForPipeline(Player player, Connection conn) {
+        if (shutdown || !player.isOnline()) return null;
+
+        E data = null;
+        long start = metrics.start(Operation.LOAD);
+        try {
+            data = loadPlayerData(player, conn);
+        } catch (Exception e) {
+            instance.getLogger().log(Level.SEVERE, "Failed to load player data of " + player.getName(), e);
+        } finally {
+            metrics.finish(Operation.LOAD, start, data != null);
+        }
+
+        if (data == null) {
+            instance.getLogger().log(Level.SEVERE, "Failed to load player data. See issues above (hopefully there are some...)");
+            return null;
+        }
+
+        E newPlayerData = data;
+        return () -> publishJoinedPlayer(player, newPlayerData);
+    }
+
+    /**
+     * Adds the loaded data of a player who joined. Runs on the main thread.
+     * If the player left while their data was loading, the data is dropped.
+     * @param player The player
+     * @param data The player data
+     */
+    private void publishJoinedPlayer(Player player, E data) {
+        if (shutdown) return;
+
+        if (player.isOnline()) {
+            players.put(player.getUniqueId(), data);
+            track(data);
+        } else if (leases != null) {
+            leases.releaseAsync(player.getUniqueId());
+        }
+    }
+
+    /**
+     * Loads joining players through the shared {@link JoinPipeline} instead of on this container's own threads.
+     * Every container using the same pool loads a joining player on one connection, and the data of all of them
+     * is added in the same tick. Containers should override {@link #loadPlayerData(Player, Connection)} to use the connection.
+     * Players loaded by pre-login prefetch or found in the offline cache skip the pipeline.
+     * Pipeline loads run on the pipeline's threads, so they are not limited by {@link #setMaxConcurrentLoads(int)}.
+     * Unless a limit was set, the loader threads are sized from the pool, see {@link #setMaxConcurrentLoads(DatabaseConnectionPool)}.
+     * @param pool The pool this container loads from
+     * @throws IllegalStateException If ServerUtils is not enabled
+     */
+    public void useJoinPipeline(DatabaseConnectionPool pool) {
+        if (ServerUtils.getInstance() == null || ServerUtils.getInstance().getJoinPipeline() == null) {
+            throw new IllegalStateException("ServerUtils must be enabled to use the join pipeline");
+        }
+        joinPool = pool;
+        setDatabasePool(pool);
+        // Offline lookups and pre-login prefetch still use the loader threads
+        if (!loadConcurrencySet) resizeLoaders(getLoadConcurrency(pool));
+    }
+
+    /**
+     * Loads joining players on this container's own threads again.
+     */
+    public void disableJoinPipeline() {
+        joinPool = null;
+    }
+
+    /**
+     * @return If joining players are loaded through the {@link JoinPipeline}
+     */
+    public boolean isUsingJoinPipeline() {
+        return joinPool != null;
+    }
+
     @EventHandler
     public void onQuit(PlayerQuitEvent e) {
         E playerData = players.remove(e.getPlayer().getUniqueId());
@@ -127,7 +920,7 @@ public abstract class PlayerDataContainer<E extends PlayerProfile> implements Li
         if (!playerData.getProfileViewers().isEmpty()) {
             offlinePlayers.put(e.getPlayer().getUniqueId(), playerData);
         } else {
-            savePlayerData(playerData);
+            releaseProfile(playerData);
         }
     }
 
@@ -140,9 +933,9 @@ public abstract class PlayerDataContainer<E extends PlayerProfile> implements Li
         if (!offlinePlayers.containsKey(data.getUniqueId())) return;
 
         Bukkit.getScheduler().scheduleSyncDelayedTask(instance, () -> {
-            if (data.getProfileViewers().isEmpty()) {
-                savePlayerData(data);
+            if (data.getProfileViewers().isEmpty() && offlinePlayers.peek(data.getUniqueId()) == data) {
                 offlinePlayers.remove(data.getUniqueId());
+                releaseProfile(data);
             }
         }, 1);
     }
@@ -152,22 +945,266 @@ public abstract class PlayerDataContainer<E extends PlayerProfile> implements Li
      * Any matches will call {@link #savePlayerData(PlayerProfile)}.
      */
     public void purgeUnusedAccounts() {
-        Iterator<Map.Entry<UUID, E>> iterator = offlinePlayers.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<UUID, E> entry = iterator.next();
-            if (entry.getValue().getProfileViewers().isEmpty()) {
-                savePlayerData(entry.getValue());
-                iterator.remove();
+        for (E data : offlinePlayers.removeIf(data -> data.getProfileViewers().isEmpty())) {
+            releaseProfile(data);
+        }
+        for (UUID uuid : offlinePlayers.removeDormant()) {
+            if (leases != null) leases.releaseAsync(uuid);
+        }
+    }
+
+    /**
+     * Saves an offline profile evicted from the cache. With dirty tracking, it is only saved if it has unsaved changes.
+     * @param uuid The player's UUID
+     * @param data The player data or null if the profile was dormant
+     */
+    private void onOfflineProfileEvicted(UUID uuid, @Nullable E data) {
+        if (data != null && (!dirtyTracking || data.isDirty())) {
+            releaseProfile(data);
+        } else if (leases != null) {
+            leases.releaseAsync(uuid);
+        }
+    }
+
+    /**
+     * Evicts expired offline profiles and compacts idle ones. Runs every {@value OFFLINE_CACHE_SWEEP_TICKS} ticks.
+     */
+    private void sweepOfflineProfiles() {
+        offlinePlayers.evictExpired();
+        offlinePlayers.compactIdle();
+    }
+
+    /**
+     * Serializes offline profiles which have been idle for a while so their object graphs can be collected.
+     * Dormant profiles are rehydrated with {@link #deserializeProfile(UUID, byte[])} the next time they are accessed
+     * through this container, like with {@link #getLoadedPlayerData(UUID)} before attaching a viewer.
+     * Only profiles without viewers and without unsaved changes are compacted,
+     * so this is only useful if {@link #serializeProfile(PlayerProfile)} is much smaller than the profile itself.
+     * Unsaved changes can only be detected with {@link #enableDirtyTracking()}, which must be called first.<p>
+     * Rehydrating creates a new instance. Anything holding on to an offline profile should attach a viewer.
+     * @param idleTime The time since the last access before a profile is compacted
+     * @param offHeap If the bytes should be held in direct buffers outside the Java heap
+     * @throws IllegalStateException If dirty tracking is not enabled
+     */
+    public void enableProfileCompaction(Duration idleTime, boolean offHeap) {
+        if (!dirtyTracking) {
+            throw new IllegalStateException("Profile compaction requires enableDirtyTracking(), otherwise unmarked changes would be lost");
+        }
+        offlinePlayers.enableCompaction(new OfflineProfileCache.Compactor<>() {
+            @Override
+            public byte[] compact(E data) throws Exception {
+                return serializeProfile(data);
+            }
+
+            @Override
+            public E expand(UUID uuid, byte[] bytes) throws Exception {
+                E data = deserializeProfile(uuid, bytes);
+                if (data != null) track(data);
+                return data;
+            }
+        }, idleTime.toMillis(), offHeap);
+    }
+
+    /**
+     * Stops compacting offline profiles. Dormant profiles are rehydrated as they are accessed.
+     */
+    public void disableProfileCompaction() {
+        offlinePlayers.disableCompaction();
+    }
+
+    /**
+     * Serializes an idle offline profile when compaction is enabled.
+     * This is called on the main thread, so it should be quick.
+     * @param data The player data
+     * @return The bytes to hold instead of the profile or null to keep the profile as is
+     * @throws Exception If the profile could not be serialized. The profile is kept as is
+     */
+    @Nullable
+    protected byte[] serializeProfile(E data) throws Exception {
+        return null;
+    }
+
+    /**
+     * Recreates a profile from the bytes returned by {@link #serializeProfile(PlayerProfile)}.
+     * This may be called from any thread which looks up the profile.
+     * If this returns null or throws, the profile is dropped and loaded again from the database.
+     * @param uuid The player's UUID
+     * @param bytes The serialized profile
+     * @return The player data or null
+     * @throws Exception If the profile could not be deserialized
+     */
+    @Nullable
+    protected E deserializeProfile(UUID uuid, byte[] bytes) throws Exception {
+        return null;
+    }
+
+    /**
+     * Saves a profile which is no longer in use on this server and releases its lease once the save succeeds.
+     * If the save fails, the lease is left to expire instead.<p>
+     * Until a save running on a save thread commits, the profile stays reachable through {@link #getLoadedPlayerData(UUID)}
+     * and is reused if the player rejoins, so no load reads the database before the save is written.
+     * The profile must already be removed from the online and offline maps.
+     * @param data The player data
+     */
+    private void releaseProfile(E data) {
+        CompletableFuture<Boolean> save = saveProfile(data);
+        if (save.isDone()) {
+            finishRelease(data, !save.isCompletedExceptionally() && save.join());
+            return;
+        }
+
+        releasing.put(data.getUniqueId(), data);
+        save.whenComplete((saved, error) -> {
+            boolean success = error == null && saved;
+            if (instance.isEnabled()) {
+                Bukkit.getScheduler().runTask(instance, () -> finishRelease(data, success));
+            } else {
+                finishRelease(data, success);
             }
+        });
+    }
+
+    /**
+     * Finishes releasing a profile once its save completed. Runs on the main thread.
+     * A profile which was taken back into use while it saved is kept, and one which changed or gained viewers
+     * is moved to the offline cache so its changes are saved later.
+     * @param data The player data
+     * @param saved If the save succeeded
+     */
+    private void finishRelease(E data, boolean saved) {
+        UUID uuid = data.getUniqueId();
+        releasing.remove(uuid, data);
+        if (shutdown || players.get(uuid) == data || offlinePlayers.peek(uuid) == data) return;
+
+        ProfileLeaseManager leases = this.leases;
+        if (!saved) {
+            if (leases != null) leases.abandon(uuid);
+        } else if (data.isDirty() || !data.getProfileViewers().isEmpty()) {
+            offlinePlayers.put(uuid, data);
+        } else if (leases != null && leases.isHeld(uuid)) {
+            leases.releaseAsync(uuid);
+        }
+    }
+
+    /**
+     * Keeps a leaderboard up to date with this container's profiles.
+     * Every loaded profile is added now, and profiles update the leaderboard when they are loaded, marked dirty or saved.
+     * Players who are not loaded should be seeded from the database, see {@link LeaderboardIndex#seed(LeaderboardIndex.Entry)}.
+     * This should be called on the main thread.
+     * @param leaderboard The leaderboard
+     */
+    public void addLeaderboard(LeaderboardIndex<E> leaderboard) {
+        leaderboards.add(leaderboard);
+        for (E data : getAllPlayerData()) {
+            leaderboard.update(data);
+        }
+    }
+
+    /**
+     * Stops updating a leaderboard. Its entries are kept.
+     * @param leaderboard The leaderboard
+     */
+    public void removeLeaderboard(LeaderboardIndex<E> leaderboard) {
+        leaderboards.remove(leaderboard);
+    }
+
+    /**
+     * @return An unmodifiable view of the leaderboards updated by this container
+     */
+    public List<LeaderboardIndex<E>> getLeaderboards() {
+        return Collections.unmodifiableList(leaderboards);
+    }
+
+    /**
+     * Called whenever a profile is added to this container.
+     * Updates the leaderboards now and whenever the profile is marked dirty.
+     * @param data The player data
+     */
+    private void track(E data) {
+        // Fails on the first load instead of on every save thread later
+        if (!snapshotSupportChecked) {
+            snapshotSupportChecked = true;
+            takeSnapshot(data);
+        }
+
+        data.setDirtyListener(() -> updateLeaderboards(data));
+        updateLeaderboards(data);
+    }
+
+    private void updateLeaderboards(E data) {
+        for (LeaderboardIndex<E> leaderboard : leaderboards) {
+            leaderboard.update(data);
+        }
+    }
+
+    /**
+     * Declares that every change to this container's profiles calls {@link PlayerProfile#markDirty()}.
+     * Clean profiles evicted from the offline cache are then dropped without being saved.
+     * Without this, a profile which was changed without being marked dirty cannot be told apart from a clean one,
+     * so every evicted profile is saved.
+     */
+    public void enableDirtyTracking() {
+        dirtyTracking = true;
+        offlinePlayers.setDirtyTracking(true);
+    }
+
+    /**
+     * @return If this container's profiles mark every change, see {@link #enableDirtyTracking()}
+     */
+    public boolean isDirtyTracking() {
+        return dirtyTracking;
+    }
+
+    /**
+     * Makes this server take a lease on each player's data before loading it, and release it after saving it.
+     * When a player switches servers, the load waits until the previous server's save has completed.
+     * If the timeout passes first, the data is loaded anyway and a warning is logged.<p>
+     * For this to be correct, {@link #attemptSave(PlayerProfile, ProfileDelta)} or {@link #saveSnapshot(ProfileSnapshot)}
+     * must only return once the write is committed. Writes which are queued for later would release the lease too early.
+     * @param leases The lease manager sharing a database with the other servers
+     * @param timeout The maximum time a load waits for the lease
+     */
+    public void enableProfileLeases(ProfileLeaseManager leases, Duration timeout) {
+        this.leaseTimeout = timeout;
+        this.leases = leases;
+    }
+
+    /**
+     * @return The lease manager or null if leases are not enabled
+     */
+    @Nullable
+    public ProfileLeaseManager getProfileLeaseManager() {
+        return leases;
+    }
+
+    /**
+     * Waits for the lease of a player's data if leases are enabled. This blocks!
+     * The {@link JoinPipeline} calls this before checking out its shared connection, since taking a lease uses a connection too.
+     * @param uuid The player's UUID
+     */
+    void acquireLease(UUID uuid) {
+        ProfileLeaseManager leases = this.leases;
+        if (leases == null) return;
+
+        if (!leases.acquire(uuid, leaseTimeout)) {
+            instance.getLogger().warning("Timed out waiting for another server to release the data of " + uuid + ". Loading it anyway");
         }
     }
 
+    /**
+     * The cache's limits may be changed and its hit rate can be used to size it.
+     * @return The cache holding the profiles of offline players
+     */
+    public OfflineProfileCache<E> getOfflineProfileCache() {
+        return offlinePlayers;
+    }
+
     /**
      * @param uuid The player's UUID
      * @return If the player has loaded data
      */
     public boolean hasLoadedData(UUID uuid) {
-        return players.containsKey(uuid) || offlinePlayers.containsKey(uuid);
+        return players.containsKey(uuid) || offlinePlayers.containsKey(uuid) || releasing.containsKey(uuid);
     }
 
     /**
@@ -181,48 +1218,345 @@ public abstract class PlayerDataContainer<E extends PlayerProfile> implements Li
     }
 
     /**
-     * Retrieve the loaded data of an online or offline player whose data is loaded
+     * Retrieve the loaded data of an online or offline player whose data is loaded.
+     * This includes profiles of players who left and are still being saved.
      * @param uuid The player's UUID
      * @return The player's data or null
      */
     @Nullable
     public E getLoadedPlayerData(UUID uuid) {
-        return players.getOrDefault(uuid, offlinePlayers.get(uuid));
+        E data = players.get(uuid);
+        if (data == null) data = offlinePlayers.get(uuid);
+        return data != null ? data : releasing.get(uuid);
     }
 
     /**
      * Retrieve an offline player's data.
      * Since this may need to be loaded from the database, a CompletableFuture is used.
+     * Concurrent requests for the same player share a single load and all receive the same instance.
+     * The future completes on a loader thread, so it may be joined from the main thread. Loaded data is added
+     * on the main thread in a later tick. If the player's data was loaded some other way in the meantime,
+     * such as by joining, that instance is kept and the returned one is discarded.
      * @param offlinePlayer The offline player
      * @return The player's data
      */
     public CompletableFuture<E> getPlayerData(OfflinePlayer offlinePlayer) {
-        E data = offlinePlayers.get(offlinePlayer.getUniqueId());
+        UUID uuid = offlinePlayer.getUniqueId();
+        E data = getLoadedPlayerData(uuid);
         if (data != null) return CompletableFuture.completedFuture(data);
 
-        CompletableFuture<E> future = CompletableFuture.supplyAsync(() -> {
-            E newData = loadOfflinePlayerData(offlinePlayer);
+        if (shutdown) return CompletableFuture.failedFuture(new IllegalStateException("The player data container is shut down"));
 
-            // Add to the map synchronously to avoid any potential issues
-            Bukkit.getServer().getScheduler().runTask(instance, () -> offlinePlayers.put(offlinePlayer.getUniqueId(), newData));
+        CompletableFuture<E> future = new CompletableFuture<>();
+        CompletableFuture<E> inFlight = inFlightLoads.putIfAbsent(uuid, future);
+        if (inFlight != null) return inFlight;
 
-            return newData;
-        });
+        try {
+            submitLoad(LoadPriority.OFFLINE, () -> loadOfflineProfile(offlinePlayer, future));
+        } catch (RejectedExecutionException e) {
+            inFlightLoads.remove(uuid, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 
-        future.exceptionally(error -> {
-            instance.getLogger().log(Level.SEVERE, "Failed to load offline player data", error.getStackTrace());
-            return null;
+    /**
+     * Loads an offline profile and completes the future on the loader thread, then adds it on the main thread.
+     * The load stays in flight until it is added, so requests in between receive the same instance.
+     * If the player's data was loaded some other way in the meantime, such as by joining, that instance is kept.
+     * @param offlinePlayer The offline player
+     * @param future The future to complete
+     */
+    private void loadOfflineProfile(OfflinePlayer offlinePlayer, CompletableFuture<E> future) {
+        UUID uuid = offlinePlayer.getUniqueId();
+        E newData;
+        try {
+            newData = timedOfflineLoad(offlinePlayer);
+        } catch (Exception e) {
+            instance.getLogger().log(Level.SEVERE, "Failed to load offline player data", e);
+            inFlightLoads.remove(uuid, future);
+            future.completeExceptionally(e);
+            return;
+        }
+
+        // Completing here instead of on the main thread lets the main thread wait on the future without deadlocking
+        future.complete(newData);
+        if (newData == null || !instance.isEnabled()) {
+            inFlightLoads.remove(uuid, future);
+            return;
+        }
+
+        // Add to the map synchronously to avoid any potential issues
+        Bukkit.getServer().getScheduler().runTask(instance, () -> {
+            inFlightLoads.remove(uuid, future);
+            if (shutdown || players.containsKey(uuid) || offlinePlayers.containsKey(uuid) || releasing.containsKey(uuid)) return;
+
+            offlinePlayers.put(uuid, newData);
+            track(newData);
         });
+    }
 
-        return future;
+    /**
+     * Releases all player data for a plugin disable. This must be called on the main thread.<p>
+     * New loads are rejected and loads in progress are cancelled. Then every loaded profile, online or offline,
+     * is saved in parallel on the save threads, since the main thread is blocked and cannot modify them.
+     * Snapshot saves which were already running, such as those of players who just left, are waited on as well.
+     * This waits for the saves until the timeout passes. Saves still running after that are abandoned,
+     * so a slow database cannot hold up the restart.
+     * @param timeout The maximum time to wait for saves
+     * @return The number of profiles which were saved, failed or timed out
+     */
+    public ShutdownReport shutdown(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        shutdown = true;
+        containers.remove(this);
+
+        stopAutoSave();
+        disablePreLoginPrefetch();
+        offlineCacheSweepTask.cancel();
+        for (Runnable queued : loadExecutor.shutdownNow()) {
+            if (queued instanceof PlayerDataContainer<?>.PrioritizedLoad load) load.cancel();
+        }
+        for (CompletableFuture<E> future : inFlightLoads.values()) {
+            future.cancel(false);
+        }
+        inFlightLoads.clear();
+
+        saveExecutor.setMaximumPoolSize(SHUTDOWN_SAVER_THREADS);
+        saveExecutor.setCorePoolSize(SHUTDOWN_SAVER_THREADS);
+
+        List<UUID> uuids = new ArrayList<>();
+        List<CompletableFuture<Boolean>> saves = new ArrayList<>();
+        for (E data : new ArrayList<>(getAllPlayerData())) {
+            uuids.add(data.getUniqueId());
+            saves.add(saveProfile(data, true));
+        }
+
+        // Saves started earlier are not returned above if the profile was already released
+        Set<CompletableFuture<Boolean>> started = Collections.newSetFromMap(new IdentityHashMap<>());
+        started.addAll(saves);
+        for (Map.Entry<UUID, CompletableFuture<Boolean>> entry : snapshotSaves.getPending().entrySet()) {
+            if (started.add(entry.getValue())) {
+                uuids.add(entry.getKey());
+                saves.add(entry.getValue());
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(saves.toArray(new CompletableFuture[0])).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException ignored) {
+            // Counted below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int flushed = 0, failed = 0, timedOut = 0;
+        List<UUID> released = new ArrayList<>();
+        for (int i = 0; i < saves.size(); i++) {
+            CompletableFuture<Boolean> save = saves.get(i);
+            UUID uuid = uuids.get(i);
+
+            if (!save.isDone()) {
+                timedOut++;
+                if (leases != null) leases.abandon(uuid);
+            } else if (save.isCompletedExceptionally() || !save.join()) {
+                failed++;
+                if (leases != null) leases.abandon(uuid);
+            } else {
+                flushed++;
+                released.add(uuid);
+            }
+        }
+        saveExecutor.shutdownNow();
+        // Dormant profiles are always clean, so they only need their leases released
+        released.addAll(offlinePlayers.removeDormant());
+        if (leases != null) {
+            leases.releaseAll(released);
+            leases.close();
+        }
+
+        players.clear();
+        offlinePlayers.clear();
+        snapshotSaves.clear();
+        releasing.clear();
+
+        ShutdownReport report = new ShutdownReport(flushed, failed, timedOut);
+        if (failed > 0 || timedOut > 0) {
+            instance.getLogger().log(Level.SEVERE, "Failed to save player data on shutdown. " + report);
+        } else {
+            instance.getLogger().info("Saved " + flushed + " player profiles on shutdown");
+        }
+        return report;
+    }
+
+    /**
+     * @return The load and save statistics of this container
+     */
+    public ContainerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The number of loads waiting for a loader thread
+     */
+    public int getLoadQueueDepth() {
+        return loadExecutor.getQueue().size();
+    }
+
+    /**
+     * @return The number of snapshot saves waiting for a save thread
+     */
+    public int getSaveQueueDepth() {
+        return saveExecutor.getQueue().size();
+    }
+
+    /**
+     * @return The number of profiles waiting to be saved by the autosave
+     */
+    public int getAutoSaveQueueDepth() {
+        return autoSaveQueue.size();
+    }
+
+    /**
+     * @return The number of online players with loaded data
+     */
+    public int getOnlineProfileCount() {
+        return players.size();
+    }
+
+    /**
+     * @return The plugin which owns this container
+     */
+    public JavaPlugin getPlugin() {
+        return instance;
+    }
+
+    /**
+     * @return An unmodifiable view of all containers of every plugin which have not been shut down
+     */
+    public static List<PlayerDataContainer<?>> getContainers() {
+        return Collections.unmodifiableList(containers);
+    }
+
+    /**
+     * @return If {@link #shutdown(Duration)} was called
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * @return If loaded data may be read from any thread
+     */
+    public boolean isConcurrent() {
+        return concurrent;
     }
 
     /**
      * Gets all loaded data of online and offline players.
+     * In concurrent mode, this is an unmodifiable, weakly consistent view which reflects later changes.
+     * Iterating it never throws {@link ConcurrentModificationException}, but a profile moving between
+     * the online and offline maps during iteration may be seen twice or not at all.
+     * Otherwise, this is a copy which should only be created on the main thread.
+     * Dormant offline profiles are not included.
      * @return The data of all loaded profiles
      */
     public Collection<E> getAllPlayerData() {
+        if (concurrent) return allPlayerDataView;
+
         return Stream.concat(players.values().stream(), offlinePlayers.values().stream())
                 .collect(Collectors.toList());
     }
+
+    /**
+     * A read-only view over the values of both concurrent maps.
+     */
+    private class AllPlayerDataView extends AbstractCollection<E> {
+
+        @Override
+        public Iterator<E> iterator() {
+            Iterator<E> online = players.values().iterator();
+            Iterator<E> offline = offlinePlayers.values().iterator();
+
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return online.hasNext() || offline.hasNext();
+                }
+
+                @Override
+                public E next() {
+                    return online.hasNext() ? online.next() : offline.next();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return players.size() + offlinePlayers.values().size();
+        }
+    }
+
+    private enum LoadPriority {
+        /**
+         * A player who is online and waiting for their data
+         */
+        ONLINE,
+        /**
+         * A lookup of an offline player's data
+         */
+        OFFLINE
+    }
+
+    /**
+     * A load which waits in the loader queue ordered by priority, then by the order it was queued.
+     */
+    private class PrioritizedLoad implements Runnable, Comparable<PrioritizedLoad> {
+        private final LoadPriority priority;
+        private final long sequence;
+        private final long queuedAt;
+        private final Runnable load;
+        @Nullable private final CompletableFuture<?> result;
+
+        private PrioritizedLoad(LoadPriority priority, long sequence, Runnable load, @Nullable CompletableFuture<?> result) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.load = load;
+            this.result = result;
+            queuedAt = System.nanoTime();
+        }
+
+        /**
+         * Cancels the result of a load which was discarded from the queue before it started.
+         */
+        private void cancel() {
+            if (result != null) result.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            metrics.recordLoadWait(System.nanoTime() - queuedAt);
+            load.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedLoad other) {
+            int compare = priority.compareTo(other.priority);
+            return compare != 0 ? compare : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * The result of {@link #shutdown(Duration)}. Saves which were already running when it was called are included.
+     * @param flushed The number of profiles which were saved
+     * @param failed The number of profiles which failed to save
+     * @param timedOut The number of profiles which were still saving when the timeout passed
+     */
+    public record ShutdownReport(int flushed, int failed, int timedOut) {
+
+        @Override
+        public String toString() {
+            return "flushed=" + flushed + " failed=" + failed + " timed-out=" + timedOut;
+        }
+    }
 }
@@ -0,0 +1,130 @@
+package com.github.mittenmc.serverutils.player;
+
+import com.github.mittenmc.serverutils.player.profile.PlayerProfile;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Holds player data loaded during login until the player joins, see {@link PlayerDataContainer#enablePreLoginPrefetch(long)}.<p>
+ * A prefetch takes the player's profile lease before loading. Data which is claimed on join keeps the lease.
+ * Every other outcome passes the player to the discard listener so the lease can be released: a load which failed
+ * or found nothing, a denied login, data which expired before the player joined, and data dropped when
+ * prefetching is disabled.<p>
+ * All methods are safe to call from any thread.
+ * @param <E> The player data type
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+class PreLoginStage<E extends PlayerProfile> {
+
+    private final Map<UUID, Staged<E>> staged;
+    private final Consumer<UUID> discardListener;
+    private volatile long ttlMillis;
+
+    /**
+     * @param discardListener Called with the UUID of each player whose prefetch was discarded without being claimed
+     */
+    PreLoginStage(Consumer<UUID> discardListener) {
+        this.discardListener = discardListener;
+        staged = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param ttlMillis The time in milliseconds prefetched data is kept. Use 0 to stop prefetching
+     */
+    void setTimeToLive(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return If prefetched data is accepted
+     */
+    boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    /**
+     * Stores the result of a prefetch until the player joins. This is called once the lease was taken,
+     * so a prefetch which loaded nothing or arrived after prefetching was disabled is discarded.
+     * @param uuid The player's UUID
+     * @param data The loaded data or null if the load failed
+     * @param now The current time in milliseconds
+     */
+    void offer(UUID uuid, @Nullable E data, long now) {
+        long ttl = ttlMillis;
+        if (data == null || ttl <= 0) {
+            discardListener.accept(uuid);
+            return;
+        }
+
+        Staged<E> entry = new Staged<>(data, now + ttl);
+        staged.put(uuid, entry);
+        // Prefetching may have been disabled while the data was added
+        if (ttlMillis <= 0 && staged.remove(uuid, entry)) discardListener.accept(uuid);
+    }
+
+    /**
+     * Takes the data of a player who joined. The joining player keeps the lease, even if the data expired.
+     * @param uuid The player's UUID
+     * @param now The current time in milliseconds
+     * @return The data or null if none is staged or it expired
+     */
+    @Nullable
+    E claim(UUID uuid, long now) {
+        Staged<E> entry = staged.remove(uuid);
+        return entry == null || entry.expiresAt() <= now ? null : entry.data();
+    }
+
+    /**
+     * Discards the data of a player whose login was denied.
+     * @param uuid The player's UUID
+     */
+    void discard(UUID uuid) {
+        if (staged.remove(uuid) != null) discardListener.accept(uuid);
+    }
+
+    /**
+     * Discards the data of players who did not join in time.
+     * @param now The current time in milliseconds
+     * @return The number of players discarded
+     */
+    int expire(long now) {
+        int expired = 0;
+        for (Map.Entry<UUID, Staged<E>> entry : staged.entrySet()) {
+            if (entry.getValue().expiresAt() <= now && staged.remove(entry.getKey(), entry.getValue())) {
+                discardListener.accept(entry.getKey());
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Stops accepting prefetched data and discards everything which is waiting.
+     */
+    void clear() {
+        ttlMillis = 0;
+        for (UUID uuid : staged.keySet()) {
+            if (staged.remove(uuid) != null) discardListener.accept(uuid);
+        }
+    }
+
+    /**
+     * @return The number of players whose data is waiting
+     */
+    int size() {
+        return staged.size();
+    }
+
+    /**
+     * Player data loaded during login which is waiting for the player to join.
+     * @param data The player data
+     * @param expiresAt The time in milliseconds when the data is discarded
+     */
+    private record Staged<E>(E data, long expiresAt) {}
+}
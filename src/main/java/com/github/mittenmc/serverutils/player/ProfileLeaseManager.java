@@ -0,0 +1,277 @@
+package com.github.mittenmc.serverutils.player;
+
+import com.github.mittenmc.serverutils.database.DatabaseConnectionPool;
+import lombok.Getter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+
+/**
+ * Keeps servers on a network from loading a player's data while another server is still saving it.<p>
+ * A server holds a lease row for every player whose data it has loaded. When a player switches servers,
+ * the new server waits for the old server to release the lease, which happens after its save completes.
+ * Leases are renewed periodically and expire if a server stops without releasing them.<p>
+ * Leases are kept per namespace, usually the plugin name, so plugins sharing a database do not wait on each other's leases.<p>
+ * Expiry times are written with each server's clock, so server clocks should be roughly in sync.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class ProfileLeaseManager {
+
+    static final String TABLE_NAME = "serverutils_profile_leases";
+    private static final long MIN_POLL_INTERVAL = 20;
+    private static final long MAX_POLL_INTERVAL = 1000;
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+            "namespace VARCHAR(64) NOT NULL, " +
+            "uuid CHAR(36) NOT NULL, " +
+            "owner VARCHAR(64) NOT NULL, " +
+            "expires_at BIGINT NOT NULL, " +
+            "PRIMARY KEY (namespace, uuid))";
+    private static final String INSERT_LEASE = "INSERT IGNORE INTO " + TABLE_NAME + " (namespace, uuid, owner, expires_at) VALUES (?, ?, ?, ?)";
+    private static final String TAKE_LEASE = "UPDATE " + TABLE_NAME + " SET owner = ?, expires_at = ? WHERE namespace = ? AND uuid = ? AND (owner = ? OR expires_at < ?)";
+    private static final String RENEW_LEASE = "UPDATE " + TABLE_NAME + " SET expires_at = ? WHERE namespace = ? AND uuid = ? AND owner = ?";
+    private static final String RELEASE_LEASE = "DELETE FROM " + TABLE_NAME + " WHERE namespace = ? AND uuid = ? AND owner = ?";
+
+    private final DatabaseConnectionPool pool;
+    @Getter private final String namespace;
+    @Getter private final String owner;
+    @Getter private final long leaseMillis;
+    private final Set<UUID> heldLeases;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates the lease table if it does not exist and starts renewing this server's leases.
+     * Leases are kept in the namespace of the pool's plugin.
+     * @param pool The database shared by every server on the network
+     * @param owner A name for this server which is unique on the network
+     * @param leaseMillis The time in milliseconds a lease lasts without being renewed
+     * @throws SQLException If the lease table could not be created
+     */
+    public ProfileLeaseManager(DatabaseConnectionPool pool, String owner, long leaseMillis) throws SQLException {
+        this(pool, pool.getPlugin().getName(), owner, leaseMillis);
+    }
+
+    /**
+     * Creates the lease table if it does not exist and starts renewing this server's leases.
+     * @param pool The database shared by every server on the network
+     * @param namespace The name leases are kept under, such as the plugin or container name
+     * @param owner A name for this server which is unique on the network
+     * @param leaseMillis The time in milliseconds a lease lasts without being renewed
+     * @throws SQLException If the lease table could not be created
+     */
+    public ProfileLeaseManager(DatabaseConnectionPool pool, String namespace, String owner, long leaseMillis) throws SQLException {
+        this.pool = pool;
+        this.namespace = namespace;
+        this.owner = owner;
+        this.leaseMillis = leaseMillis;
+        heldLeases = ConcurrentHashMap.newKeySet();
+
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(pool.getType().translate(CREATE_TABLE));
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, pool.getPlugin().getName() + "-profile-leases");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long renewInterval = Math.max(1, leaseMillis / 3);
+        executor.scheduleWithFixedDelay(this::renewLeases, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Attempts to take the lease once.
+     * Succeeds if nobody holds the lease, this server already holds it, or the holder's lease expired.
+     * @param uuid The player's UUID
+     * @return If this server now holds the lease
+     * @throws SQLException If the database could not be reached
+     */
+    public boolean tryAcquire(UUID uuid) throws SQLException {
+        long now = System.currentTimeMillis();
+
+        try (Connection conn = pool.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(pool.getType().translate(INSERT_LEASE))) {
+                stmt.setString(1, namespace);
+                stmt.setString(2, uuid.toString());
+                stmt.setString(3, owner);
+                stmt.setLong(4, now + leaseMillis);
+                if (stmt.executeUpdate() > 0) {
+                    heldLeases.add(uuid);
+                    return true;
+                }
+            }
+
+            try (PreparedStatement stmt = conn.prepareStatement(TAKE_LEASE)) {
+                stmt.setString(1, owner);
+                stmt.setLong(2, now + leaseMillis);
+                stmt.setString(3, namespace);
+                stmt.setString(4, uuid.toString());
+                stmt.setString(5, owner);
+                stmt.setLong(6, now);
+                if (stmt.executeUpdate() > 0) {
+                    heldLeases.add(uuid);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for the lease to be free and takes it. This blocks, so it should always be called asynchronously!
+     * The lease is polled with exponential backoff, starting at {@value MIN_POLL_INTERVAL}ms
+     * and growing to at most {@value MAX_POLL_INTERVAL}ms.
+     * @param uuid The player's UUID
+     * @param timeout The maximum time to wait
+     * @return If this server now holds the lease. False if the timeout passed or the database failed
+     */
+    public boolean acquire(UUID uuid, Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        long interval = MIN_POLL_INTERVAL;
+
+        while (true) {
+            try {
+                if (tryAcquire(uuid)) return true;
+            } catch (SQLException e) {
+                pool.getPlugin().getLogger().log(Level.WARNING, "Failed to acquire the profile lease of " + uuid, e);
+                return false;
+            }
+
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) return false;
+
+            // Jitter keeps servers waiting on the same lease from polling in lockstep
+            long sleep = Math.min(remaining, interval / 2 + ThreadLocalRandom.current().nextLong(interval / 2 + 1));
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            interval = Math.min(MAX_POLL_INTERVAL, interval * 2);
+        }
+    }
+
+    /**
+     * Releases the lease if this server holds it. This blocks, so it should always be called asynchronously!
+     * @param uuid The player's UUID
+     */
+    public void release(UUID uuid) {
+        if (!heldLeases.remove(uuid)) return;
+
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(RELEASE_LEASE)) {
+            stmt.setString(1, namespace);
+            stmt.setString(2, uuid.toString());
+            stmt.setString(3, owner);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            pool.getPlugin().getLogger().log(Level.WARNING, "Failed to release the profile lease of " + uuid + ". It will expire in " + leaseMillis + "ms", e);
+        }
+    }
+
+    /**
+     * Releases many leases in a single batch. This blocks, so it should always be called asynchronously!
+     * @param uuids The UUIDs of the players
+     */
+    public void releaseAll(Collection<UUID> uuids) {
+        List<UUID> held = uuids.stream().filter(heldLeases::remove).toList();
+        if (held.isEmpty()) return;
+
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(RELEASE_LEASE)) {
+            for (UUID uuid : held) {
+                stmt.setString(1, namespace);
+                stmt.setString(2, uuid.toString());
+                stmt.setString(3, owner);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            pool.getPlugin().getLogger().log(Level.WARNING, "Failed to release " + held.size() + " profile leases. They will expire in " + leaseMillis + "ms", e);
+        }
+    }
+
+    /**
+     * Releases the lease on the lease thread.
+     * @param uuid The player's UUID
+     */
+    public void releaseAsync(UUID uuid) {
+        if (!heldLeases.contains(uuid)) return;
+
+        try {
+            executor.execute(() -> release(uuid));
+        } catch (RejectedExecutionException e) {
+            release(uuid);
+        }
+    }
+
+    /**
+     * Stops renewing the lease without releasing it, so it expires after the lease time.
+     * Use this when a save failed, to give other servers a chance to see a retried save before loading.
+     * @param uuid The player's UUID
+     */
+    public void abandon(UUID uuid) {
+        heldLeases.remove(uuid);
+    }
+
+    /**
+     * @param uuid The player's UUID
+     * @return If this server holds the lease
+     */
+    public boolean isHeld(UUID uuid) {
+        return heldLeases.contains(uuid);
+    }
+
+    /**
+     * @return An unmodifiable view of the leases held by this server
+     */
+    public Set<UUID> getHeldLeases() {
+        return Collections.unmodifiableSet(heldLeases);
+    }
+
+    /**
+     * Extends every lease held by this server in a single batch.
+     * Only held leases are renewed, so abandoned leases still owned by this server expire.
+     */
+    private void renewLeases() {
+        List<UUID> held = List.copyOf(heldLeases);
+        if (held.isEmpty()) return;
+
+        long expiresAt = System.currentTimeMillis() + leaseMillis;
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(RENEW_LEASE)) {
+            for (UUID uuid : held) {
+                stmt.setLong(1, expiresAt);
+                stmt.setString(2, namespace);
+                stmt.setString(3, uuid.toString());
+                stmt.setString(4, owner);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            pool.getPlugin().getLogger().log(Level.WARNING, "Failed to renew profile leases", e);
+        }
+    }
+
+    /**
+     * Stops renewing leases. Leases which are still held expire on their own.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+}
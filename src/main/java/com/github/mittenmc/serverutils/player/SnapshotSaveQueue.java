@@ -0,0 +1,110 @@
+package com.github.mittenmc.serverutils.player;
+
+import com.github.mittenmc.serverutils.player.profile.PlayerProfile;
+import com.github.mittenmc.serverutils.player.profile.ProfileSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+/**
+ * Writes the profile snapshots of a {@link PlayerDataContainer} one at a time per player, in the order they were taken.<p>
+ * A snapshot is skipped if a newer snapshot of the same player is already waiting, since the newer snapshot's
+ * delta holds every change of the skipped one. The skipped save then completes with the result of the newer save,
+ * and the profile is only marked saved up to a version which was actually written. If the newer save fails,
+ * the changes of both stay in the profile's next delta.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+class SnapshotSaveQueue {
+
+    private final Executor executor;
+    private final Predicate<ProfileSnapshot> writer;
+    private final Map<UUID, PendingSave> pending;
+
+    /**
+     * @param executor The save threads
+     * @param writer Writes a snapshot and returns if it was saved
+     */
+    SnapshotSaveQueue(Executor executor, Predicate<ProfileSnapshot> writer) {
+        this.executor = executor;
+        this.writer = writer;
+        pending = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Queues a snapshot to be written after the earlier snapshots of the same player.
+     * Requesting a save of a version which is already waiting returns the waiting save.
+     * Snapshots at version 0 come from profiles which do not track changes, so they are always written.
+     * @param data The profile the snapshot was taken of
+     * @param snapshot The snapshot
+     * @return A future which completes with whether the snapshot, or a newer one replacing it, was saved
+     */
+    CompletableFuture<Boolean> save(PlayerProfile data, ProfileSnapshot snapshot) {
+        UUID uuid = snapshot.getUniqueId();
+        PendingSave[] created = new PendingSave[1];
+        PendingSave save = pending.compute(uuid, (key, previous) -> {
+            if (previous != null && snapshot.getVersion() > 0 && previous.version() >= snapshot.getVersion()) return previous;
+
+            // Waits for the previous write, not its result, which may itself wait for this save
+            CompletableFuture<?> after = previous == null ? CompletableFuture.completedFuture(null) : previous.written();
+            CompletableFuture<Boolean> result = new CompletableFuture<>();
+            CompletableFuture<Void> written = after.handle((ignored, error) -> null)
+                    .thenRunAsync(() -> write(data, snapshot, result), executor);
+            written.whenComplete((ignored, error) -> {
+                if (error != null) result.completeExceptionally(error);
+            });
+            created[0] = new PendingSave(snapshot.getVersion(), written, result);
+            return created[0];
+        });
+
+        if (save == created[0]) {
+            save.result().whenComplete((saved, error) -> pending.remove(uuid, save));
+        }
+        return save.result();
+    }
+
+    /**
+     * Writes a snapshot unless a newer snapshot of the same player is waiting. Runs on a save thread.
+     */
+    private void write(PlayerProfile data, ProfileSnapshot snapshot, CompletableFuture<Boolean> result) {
+        PendingSave latest = pending.get(snapshot.getUniqueId());
+        if (latest != null && latest.version() > snapshot.getVersion()) {
+            latest.result().whenComplete((saved, error) -> result.complete(error == null && saved));
+            return;
+        }
+
+        boolean saved = writer.test(snapshot);
+        if (saved) data.markSaved(snapshot.getVersion());
+        result.complete(saved);
+    }
+
+    /**
+     * @return The latest save of each player whose snapshots are still being written
+     */
+    Map<UUID, CompletableFuture<Boolean>> getPending() {
+        Map<UUID, CompletableFuture<Boolean>> saves = new HashMap<>();
+        pending.forEach((uuid, save) -> saves.put(uuid, save.result()));
+        return saves;
+    }
+
+    /**
+     * Forgets every waiting save. Saves which are running still finish.
+     */
+    void clear() {
+        pending.clear();
+    }
+
+    /**
+     * The latest snapshot save of a player.
+     * @param version The version of the snapshot
+     * @param written Completes once the snapshot was written or skipped, so the next snapshot may start
+     * @param result Completes with whether the snapshot was saved
+     */
+    private record PendingSave(long version, CompletableFuture<Void> written, CompletableFuture<Boolean> result) {}
+}
@@ -5,27 +5,146 @@ import lombok.Getter;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Defines a player data object which can have viewers.
+ * Defines a player data object which can have viewers.<p>
+ * Profiles track changes with a version counter. Every call to {@link #markDirty()} increases the version,
+ * and {@link #markSaved(long)} records the version which was last written to storage.
+ * The profile is dirty while the two differ.<p>
+ * Changes may name the field which changed with {@link #markDirty(String)}.
+ * The fields changed since the last save are read with {@link #getDelta()}, so savers can write only those fields.<p>
+ * Profiles may support saving off the main thread by returning a {@link ProfileSnapshot} from {@link #snapshot()}.
  * @see ProfileViewers
  * @author GavvyDizzle
- * @version 1.1.2
+ * @version 1.1.8
  * @since 1.1.2
  */
 @SuppressWarnings("unused")
-@Getter
 public class PlayerProfile extends PlayerContainer {
 
-    private final ProfileViewers<PlayerProfile> profileViewers;
+    @Getter private final ProfileViewers<PlayerProfile> profileViewers;
+    private final AtomicLong version;
+    private volatile long savedVersion;
+    private volatile Runnable dirtyListener;
+    private final Map<String, Long> changedFields;
+    private long fullChangeVersion;
 
     public PlayerProfile(@NotNull Player player) {
         super(player);
         profileViewers = new ProfileViewers<>(this);
+        version = new AtomicLong();
+        changedFields = new HashMap<>();
     }
 
     public PlayerProfile(@NotNull OfflinePlayer offlinePlayer) {
         super(offlinePlayer);
         profileViewers = new ProfileViewers<>(this);
+        version = new AtomicLong();
+        changedFields = new HashMap<>();
+    }
+
+    /**
+     * Flags this profile as changed so it is included in the next autosave.
+     * This should be called after every modification of saved data.
+     */
+    public void markDirty() {
+        synchronized (this) {
+            fullChangeVersion = version.incrementAndGet();
+        }
+        notifyDirtyListener();
+    }
+
+    /**
+     * Flags a single field of this profile as changed so it is included in the next autosave.
+     * Unlike {@link #markDirty()}, this lets the next save write only the changed fields.
+     * @param field The name of the field which changed, such as its column name
+     */
+    public void markDirty(String field) {
+        synchronized (this) {
+            changedFields.put(field, version.incrementAndGet());
+        }
+        notifyDirtyListener();
+    }
+
+    private void notifyDirtyListener() {
+        Runnable listener = dirtyListener;
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * Reads which fields changed since the last save. The delta's version should be passed to
+     * {@link #markSaved(long)} once the save succeeds, so fields changed during the save stay in the next delta.
+     * A profile which has never been marked dirty may not track its changes at all, so its delta is always full.
+     * @return The changes since the last save
+     */
+    public synchronized ProfileDelta getDelta() {
+        Set<String> fields = new HashSet<>();
+        for (Map.Entry<String, Long> entry : changedFields.entrySet()) {
+            if (entry.getValue() > savedVersion) fields.add(entry.getKey());
+        }
+        long current = version.get();
+        return new ProfileDelta(current, Collections.unmodifiableSet(fields), current == 0 || fullChangeVersion > savedVersion);
+    }
+
+    /**
+     * Sets a listener which runs on the calling thread after each call to {@link #markDirty()}.
+     * A {@link com.github.mittenmc.serverutils.player.PlayerDataContainer} uses this to keep its leaderboards up to date.
+     * @param listener The listener or null to remove it
+     */
+    public void setDirtyListener(@Nullable Runnable listener) {
+        this.dirtyListener = listener;
+    }
+
+    /**
+     * @return The current version of this profile's data
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return The last version which was saved
+     */
+    public long getSavedVersion() {
+        return savedVersion;
+    }
+
+    /**
+     * @return If this profile has changed since it was last saved
+     */
+    public boolean isDirty() {
+        return version.get() != savedVersion;
+    }
+
+    /**
+     * Copies the saved state of this profile so it can be written off the main thread.
+     * Profiles which support snapshots should override this and return a subclass of {@link ProfileSnapshot}.
+     * This is always called on the main thread.
+     * @return The snapshot or null if this profile is saved directly on the main thread
+     */
+    @Nullable
+    public ProfileSnapshot snapshot() {
+        return null;
+    }
+
+    /**
+     * Records a successful save.
+     * The version should be read with {@link #getVersion()} before the save started,
+     * so changes made during the save keep the profile dirty.
+     * @param savedVersion The version which was saved
+     */
+    public synchronized void markSaved(long savedVersion) {
+        if (savedVersion > this.savedVersion) {
+            this.savedVersion = savedVersion;
+            changedFields.values().removeIf(changed -> changed <= savedVersion);
+        }
     }
 }
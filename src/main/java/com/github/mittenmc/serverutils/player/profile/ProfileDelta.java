@@ -0,0 +1,45 @@
+package com.github.mittenmc.serverutils.player.profile;
+
+import lombok.Getter;
+
+import java.util.Set;
+
+/**
+ * The logical fields of a {@link PlayerProfile} which changed since its last successful save.<p>
+ * Fields are named by the profile with {@link PlayerProfile#markDirty(String)}. A call to {@link PlayerProfile#markDirty()}
+ * without a field name makes the delta full, meaning the change is unknown and the whole profile should be written.
+ * The delta of a profile which was never marked dirty is also full, since the profile may not track its changes.
+ * Savers can use this to write only the changed columns, such as with a narrow {@code UPDATE ... SET col = ?}.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+@Getter
+public class ProfileDelta {
+
+    private final long version;
+    private final Set<String> changedFields;
+    private final boolean full;
+
+    ProfileDelta(long version, Set<String> changedFields, boolean full) {
+        this.version = version;
+        this.changedFields = changedFields;
+        this.full = full;
+    }
+
+    /**
+     * @param field The field name
+     * @return If the field needs to be written
+     */
+    public boolean hasChanged(String field) {
+        return full || changedFields.contains(field);
+    }
+
+    /**
+     * @return If nothing changed since the last save
+     */
+    public boolean isEmpty() {
+        return !full && changedFields.isEmpty();
+    }
+}
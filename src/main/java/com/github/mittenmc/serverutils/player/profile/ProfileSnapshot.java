@@ -0,0 +1,34 @@
+package com.github.mittenmc.serverutils.player.profile;
+
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * An immutable copy of the saved state of a {@link PlayerProfile}.<p>
+ * Snapshots are created on the main thread with {@link PlayerProfile#snapshot()} and written to storage on a
+ * save thread, so the profile can keep changing while the save runs. Subclasses should only hold
+ * immutable values or copies, never references to the profile's mutable collections.<p>
+ * The snapshot also holds the {@link ProfileDelta} of the profile, so the saver can write only the changed fields.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+@Getter
+public abstract class ProfileSnapshot {
+
+    private final UUID uniqueId;
+    private final long version;
+    private final ProfileDelta delta;
+
+    /**
+     * Captures the identity, current version and changed fields of the profile.
+     * @param profile The profile being copied
+     */
+    protected ProfileSnapshot(PlayerProfile profile) {
+        uniqueId = profile.getUniqueId();
+        delta = profile.getDelta();
+        version = delta.getVersion();
+    }
+}
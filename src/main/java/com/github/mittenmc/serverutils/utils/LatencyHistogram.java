@@ -0,0 +1,131 @@
+package com.github.mittenmc.serverutils.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets, similar to an HDR histogram.<p>
+ * Values are recorded in microseconds. Each power of two is split into {@value SUB_BUCKETS} buckets,
+ * so percentiles are accurate to within 12.5% while using a fixed amount of memory.
+ * Recording is safe from any thread.
+ * @author GavvyDizzle
+ * @version 1.1.8
+ * @since 1.1.8
+ */
+@SuppressWarnings("unused")
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder total;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(BUCKETS);
+        count = new LongAdder();
+        total = new LongAdder();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Records a single duration.
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+
+        buckets.incrementAndGet(bucketIndex(micros));
+        count.increment();
+        total.add(micros);
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * @return The number of recorded durations
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The mean duration in microseconds
+     */
+    public long getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / n;
+    }
+
+    /**
+     * @return The longest recorded duration in microseconds
+     */
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile The percentile between 0 and 100
+     * @return The upper bound of the bucket containing the percentile in microseconds
+     */
+    public long getPercentileMicros(double percentile) {
+        long n = count.sum();
+        if (n == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears all recorded durations.
+     * Durations recorded while resetting may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+    /**
+     * @return A short human-readable summary of this histogram in milliseconds
+     */
+    public String summary() {
+        return String.format("n=%d mean=%sms p50=%sms p99=%sms max=%sms",
+                getCount(), toMillis(getMeanMicros()), toMillis(getPercentileMicros(50)),
+                toMillis(getPercentileMicros(99)), toMillis(getMaxMicros()));
+    }
+
+    private static String toMillis(long micros) {
+        return String.valueOf(micros / 1000.0);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
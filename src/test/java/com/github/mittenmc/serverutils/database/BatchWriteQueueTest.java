@@ -0,0 +1,236 @@
+package com.github.mittenmc.serverutils.database;
+
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchWriteQueueTest {
+
+    private static final String INSERT = "INSERT INTO players (uuid, coins) VALUES (?, ?)";
+    private static final String UPDATE = "UPDATE players SET coins = ? WHERE uuid = ?";
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    @TempDir
+    Path folder;
+
+    private FakeDatabase database;
+    private FakeTarget target;
+    private final List<BatchWriteQueue> opened = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        database = new FakeDatabase();
+        target = new FakeTarget();
+    }
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(BatchWriteQueue::close);
+        if (target.journal != null) target.journal.close();
+    }
+
+    private BatchWriteQueue createQueue(int batchSize, long flushInterval) {
+        BatchWriteQueue queue = new BatchWriteQueue(target, Logger.getLogger("BatchWriteQueueTest"), "test", batchSize, flushInterval);
+        opened.add(queue);
+        return queue;
+    }
+
+    private static void await(CompletableFuture<?> future) throws Exception {
+        future.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void flushesWhenABatchIsFull() throws Exception {
+        BatchWriteQueue queue = createQueue(3, NEVER);
+        CompletableFuture<Void> first = queue.submit(INSERT, "a", 1);
+        queue.submit(INSERT, "b", 2);
+        assertFalse(first.isDone());
+        assertEquals(2, queue.size());
+
+        await(queue.submit(INSERT, "c", 3));
+        assertTrue(first.isDone());
+        assertEquals(0, queue.size());
+        assertEquals(1, database.batches);
+        assertEquals(List.of("a", "b", "c"), database.committed.stream().map(write -> write.params()[0]).toList());
+    }
+
+    @Test
+    void flushesWhenTheIntervalElapses() throws Exception {
+        BatchWriteQueue queue = createQueue(100, 10);
+
+        await(queue.submit(INSERT, "a", 1));
+        assertEquals(1, database.committed.size());
+    }
+
+    @Test
+    void groupsWritesBySql() {
+        BatchWriteQueue queue = createQueue(100, NEVER);
+        queue.submit(INSERT, "a", 1);
+        queue.submit(UPDATE, 5, "a");
+        queue.submit(INSERT, "b", 2);
+        queue.flush();
+
+        assertEquals(2, database.batches);
+        assertEquals(List.of(INSERT, INSERT, UPDATE), database.committed.stream().map(FakeDatabase.Write::sql).toList());
+    }
+
+    @Test
+    void closeDrainsPendingWrites() {
+        BatchWriteQueue queue = createQueue(100, NEVER);
+        CompletableFuture<Void> first = queue.submit(INSERT, "a", 1);
+        CompletableFuture<Void> second = queue.submit(INSERT, "b", 2);
+
+        queue.close();
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+        assertEquals(2, database.committed.size());
+
+        CompletableFuture<Void> late = queue.submit(INSERT, "c", 3);
+        ExecutionException e = assertThrows(ExecutionException.class, late::get);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    void failedBatchesFailWithoutAJournal() {
+        BatchWriteQueue queue = createQueue(100, NEVER);
+        database.unreachable = true;
+        CompletableFuture<Void> write = queue.submit(INSERT, "a", 1);
+        queue.flush();
+
+        assertTrue(write.isCompletedExceptionally());
+        assertTrue(database.committed.isEmpty());
+    }
+
+    @Test
+    void unreachableDatabaseJournalsFailedBatches() throws Exception {
+        target.openJournal(folder);
+        BatchWriteQueue queue = createQueue(100, NEVER);
+        database.unreachable = true;
+        CompletableFuture<Void> plain = queue.submit(INSERT, "a", 1);
+        CompletableFuture<Void> bound = queue.submit(UPDATE, stmt -> stmt.setObject(1, 5));
+        queue.flush();
+
+        // Only writes with plain parameter values can be journaled
+        assertTrue(plain.isDone() && !plain.isCompletedExceptionally());
+        assertTrue(bound.isCompletedExceptionally());
+        assertTrue(target.journal.hasPending());
+
+        database.unreachable = false;
+        assertTrue(target.journal.replay());
+        assertEquals(List.of(INSERT), database.committed.stream().map(FakeDatabase.Write::sql).toList());
+    }
+
+    @Test
+    void writesQueueBehindPendingJournaledWrites() throws Exception {
+        target.openJournal(folder);
+        BatchWriteQueue queue = createQueue(100, NEVER);
+        database.unreachable = true;
+        queue.submit(INSERT, "a", 1);
+        queue.flush();
+        database.unreachable = false;
+
+        // The journal still holds "a", so "b" is journaled behind it instead of reaching the database first
+        CompletableFuture<Void> queued = queue.submit(INSERT, "b", 2);
+        queue.flush();
+        assertTrue(queued.isDone() && !queued.isCompletedExceptionally());
+
+        assertTrue(target.journal.replay());
+        assertEquals(List.of("a", "b"), database.committed.stream().map(write -> write.params()[0]).toList());
+    }
+
+    @Test
+    void permanentFailuresAreNotJournaled() {
+        target.openJournal(folder);
+        BatchWriteQueue queue = createQueue(100, NEVER);
+        database.rejected = "duplicate";
+        CompletableFuture<Void> write = queue.submit(INSERT, "duplicate", 1);
+        queue.flush();
+
+        assertTrue(write.isCompletedExceptionally());
+        assertFalse(target.journal.hasPending());
+    }
+
+    @Test
+    void keyedWritesAreMarkedOnceCommitted() {
+        BatchWriteQueue queue = createQueue(100, NEVER);
+        UUID committed = UUID.randomUUID();
+        UUID failed = UUID.randomUUID();
+
+        queue.submit(committed, INSERT, "a", 1);
+        assertTrue(target.marked.isEmpty());
+        queue.flush();
+        assertEquals(List.of(committed), target.marked);
+
+        database.unreachable = true;
+        queue.submit(failed, INSERT, "b", 2);
+        queue.flush();
+        assertEquals(List.of(committed), target.marked);
+    }
+
+    @Test
+    void sqlIsTranslatedForTheTarget() {
+        target.type = DatabaseType.SQLITE;
+        BatchWriteQueue queue = createQueue(100, NEVER);
+        queue.submit("INSERT INTO players (uuid, coins) VALUES (?, ?) ON DUPLICATE KEY UPDATE coins = VALUES(coins)", "a", 1);
+        queue.flush();
+
+        assertEquals("INSERT INTO players (uuid, coins) VALUES (?, ?) ON CONFLICT DO UPDATE SET coins = excluded.coins",
+                database.committed.get(0).sql());
+    }
+
+    private class FakeTarget implements BatchWriteQueue.Target {
+
+        private final List<UUID> marked = Collections.synchronizedList(new ArrayList<>());
+        private DatabaseType type = DatabaseType.MYSQL;
+        @Nullable private WriteJournal journal;
+
+        private void openJournal(Path folder) {
+            try {
+                journal = new WriteJournal(folder.resolve("journal.log").toFile(), Logger.getLogger("BatchWriteQueueTest"), "test", database::getConnection);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return database.getConnection();
+        }
+
+        @Override
+        public DatabaseType getType() {
+            return type;
+        }
+
+        @Override
+        @Nullable
+        public WriteJournal getJournal() {
+            return journal;
+        }
+
+        @Override
+        public void recordQuery(String name, long nanos) {}
+
+        @Override
+        public void markWritten(UUID key) {
+            marked.add(key);
+        }
+    }
+}
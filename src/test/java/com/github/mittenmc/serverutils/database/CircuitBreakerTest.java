@@ -0,0 +1,108 @@
+package com.github.mittenmc.serverutils.database;
+
+import com.github.mittenmc.serverutils.database.CircuitBreaker.State;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    @Test
+    void staysClosedBelowThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.recordFailure();
+        assertTrue(breaker.tryAcquire());
+        breaker.recordFailure();
+
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(2, breaker.getConsecutiveFailures());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void successResetsConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void opensAtThresholdAndRejectsUntilTimeout() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60_000);
+        breaker.recordFailure();
+        breaker.recordFailure();
+
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.isClosed());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void halfOpenAllowsASingleProbe() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.recordFailure();
+        assertEquals(State.OPEN, breaker.getState());
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.recordSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void failedProbeOpensAgain() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 0);
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+
+        // A single failed probe opens the breaker, even below the threshold
+        assertTrue(breaker.tryAcquire());
+        breaker.recordFailure();
+        assertEquals(State.OPEN, breaker.getState());
+
+        // The next probe is allowed once the timeout passed, so the breaker never gets stuck half-open
+        assertTrue(breaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    void zeroThresholdNeverOpens() {
+        CircuitBreaker breaker = new CircuitBreaker(0, 0);
+        for (int i = 0; i < 100; i++) {
+            breaker.recordFailure();
+        }
+
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void listenersSeeEveryTransition() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        List<State> transitions = new ArrayList<>();
+        breaker.addListener(transitions::add);
+
+        breaker.recordFailure();
+        breaker.tryAcquire();
+        breaker.recordFailure();
+        breaker.tryAcquire();
+        breaker.recordSuccess();
+        breaker.recordSuccess();
+
+        assertEquals(List.of(State.OPEN, State.HALF_OPEN, State.OPEN, State.HALF_OPEN, State.CLOSED), transitions);
+    }
+}
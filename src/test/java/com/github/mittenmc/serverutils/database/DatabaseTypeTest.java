@@ -0,0 +1,67 @@
+package com.github.mittenmc.serverutils.database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseTypeTest {
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS players (" +
+            "id INT(11) UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY, " +
+            "uuid VARCHAR(36) NOT NULL, " +
+            "coins BIGINT UNSIGNED NOT NULL DEFAULT 0, " +
+            "updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP" +
+            ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+    @Test
+    void mysqlIsUnchanged() {
+        assertEquals(CREATE_TABLE, DatabaseType.MYSQL.translate(CREATE_TABLE));
+    }
+
+    @Test
+    void sqliteRewritesTableDefinitions() {
+        assertEquals("CREATE TABLE IF NOT EXISTS players (" +
+                "id INTEGER NOT NULL PRIMARY KEY, " +
+                "uuid VARCHAR(36) NOT NULL, " +
+                "coins BIGINT NOT NULL DEFAULT 0, " +
+                "updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")", DatabaseType.SQLITE.translate(CREATE_TABLE));
+    }
+
+    @Test
+    void sqliteRewritesQuotedAutoIncrementColumns() {
+        assertEquals("CREATE TABLE t (`id` INTEGER PRIMARY KEY, name TEXT)",
+                DatabaseType.SQLITE.translate("CREATE TABLE t (`id` bigint(20) auto_increment PRIMARY KEY, name TEXT)"));
+    }
+
+    @Test
+    void sqliteRewritesInsertIgnore() {
+        assertEquals("INSERT OR IGNORE INTO players (uuid) VALUES (?)",
+                DatabaseType.SQLITE.translate("INSERT IGNORE INTO players (uuid) VALUES (?)"));
+        assertEquals("INSERT OR IGNORE into players (uuid) VALUES (?)",
+                DatabaseType.SQLITE.translate("insert ignore into players (uuid) VALUES (?)"));
+    }
+
+    @Test
+    void sqliteRewritesUpserts() {
+        assertEquals("INSERT INTO players (uuid, coins, name) VALUES (?, ?, ?) ON CONFLICT DO UPDATE SET coins = excluded.coins, name = excluded.`name`",
+                DatabaseType.SQLITE.translate("INSERT INTO players (uuid, coins, name) VALUES (?, ?, ?) " +
+                        "ON DUPLICATE KEY UPDATE coins = VALUES(coins), name = values( `name` )"));
+        assertEquals("INSERT INTO players (uuid, coins) VALUES (?, ?) ON CONFLICT DO UPDATE SET coins = coins + excluded.coins",
+                DatabaseType.SQLITE.translate("INSERT INTO players (uuid, coins) VALUES (?, ?)\n on duplicate key update coins = coins + VALUES(coins)"));
+    }
+
+    @Test
+    void sqliteLeavesOtherStatementsUnchanged() {
+        String sql = "SELECT coins FROM players WHERE uuid = ?";
+        assertEquals(sql, DatabaseType.SQLITE.translate(sql));
+    }
+
+    @Test
+    void fromStringIgnoresCaseAndWhitespace() {
+        assertEquals(DatabaseType.MYSQL, DatabaseType.fromString("mysql"));
+        assertEquals(DatabaseType.SQLITE, DatabaseType.fromString(" SQLite "));
+        assertNull(DatabaseType.fromString("postgres"));
+        assertNull(DatabaseType.fromString(null));
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.mittenmc.serverutils.database;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the writes of committed transactions. Writes of rolled back transactions are dropped.
+ * Fields may be changed while another thread writes.
+ */
+class FakeDatabase {
+
+    final List<Write> committed = Collections.synchronizedList(new ArrayList<>());
+    volatile int connections;
+    volatile int statements;
+    volatile int batches;
+    volatile boolean unreachable;
+    volatile int failAfterConnections = Integer.MAX_VALUE;
+    volatile String rejected;
+
+    synchronized Connection getConnection() throws SQLException {
+        if (unreachable || connections >= failAfterConnections) throw new SQLTransientConnectionException("Database is down", "08001");
+        connections++;
+
+        List<Write> transaction = new ArrayList<>();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "prepareStatement" -> prepareStatement((String) args[0], transaction);
+                    case "commit" -> {
+                        committed.addAll(transaction);
+                        transaction.clear();
+                        yield null;
+                    }
+                    case "rollback" -> {
+                        transaction.clear();
+                        yield null;
+                    }
+                    case "isClosed", "getAutoCommit" -> false;
+                    default -> null;
+                });
+    }
+
+    private PreparedStatement prepareStatement(String sql, List<Write> transaction) {
+        statements++;
+        List<Object[]> batch = new ArrayList<>();
+        Object[][] params = {new Object[0]};
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "setObject" -> {
+                        int index = (int) args[0];
+                        if (params[0].length < index) params[0] = Arrays.copyOf(params[0], index);
+                        params[0][index - 1] = args[1];
+                        yield null;
+                    }
+                    case "addBatch" -> {
+                        batch.add(params[0]);
+                        params[0] = new Object[0];
+                        yield null;
+                    }
+                    case "executeBatch" -> {
+                        batches++;
+                        for (Object[] row : batch) {
+                            if (rejected != null && Arrays.asList(row).contains(rejected)) {
+                                throw new SQLIntegrityConstraintViolationException("Duplicate entry", "23000");
+                            }
+                        }
+                        batch.forEach(row -> transaction.add(new Write(sql, row)));
+                        int[] counts = new int[batch.size()];
+                        batch.clear();
+                        yield counts;
+                    }
+                    case "isClosed" -> false;
+                    default -> null;
+                });
+    }
+
+    /**
+     * A committed write.
+     * @param sql The executed SQL
+     * @param params The parameters it was executed with
+     */
+    record Write(String sql, Object[] params) {}
+}
@@ -0,0 +1,57 @@
+package com.github.mittenmc.serverutils.database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlowQueryLogTest {
+
+    @Test
+    void literalsAreReplaced() {
+        assertEquals("select * from players where name = ? and coins > ?",
+                SlowQueryLog.fingerprint("SELECT * FROM players WHERE name = 'Steve' AND coins > 100"));
+        assertEquals("select * from players where coins > ?",
+                SlowQueryLog.fingerprint("SELECT * FROM players WHERE coins > 12.5"));
+    }
+
+    @Test
+    void escapedQuotesStayInsideTheLiteral() {
+        assertEquals("select * from players where name = ? and id = ?",
+                SlowQueryLog.fingerprint("SELECT * FROM players WHERE name = 'it''s \\'quoted\\'' AND id = 3"));
+    }
+
+    @Test
+    void identifiersWithDigitsAreKept() {
+        assertEquals("select col1 from table2",
+                SlowQueryLog.fingerprint("SELECT col1 FROM table2"));
+    }
+
+    @Test
+    void whitespaceIsCollapsed() {
+        assertEquals("select coins from players where uuid = ?",
+                SlowQueryLog.fingerprint("  SELECT coins\n\tFROM   players\r\n WHERE uuid = ?  "));
+    }
+
+    @Test
+    void parameterListsAreCollapsed() {
+        assertEquals("select * from players where uuid in (?+)",
+                SlowQueryLog.fingerprint("SELECT * FROM players WHERE uuid IN (?, ?, ?)"));
+        assertEquals(SlowQueryLog.fingerprint("SELECT * FROM players WHERE uuid IN (?,?)"),
+                SlowQueryLog.fingerprint("SELECT * FROM players WHERE uuid IN ( ?, ?, ?, ? )"));
+    }
+
+    @Test
+    void singleParametersAreNotCollapsed() {
+        assertEquals("select * from players where uuid in (?)",
+                SlowQueryLog.fingerprint("SELECT * FROM players WHERE uuid IN (?)"));
+    }
+
+    @Test
+    void multiRowValuesAreCollapsed() {
+        String expected = "insert into players (uuid, coins) values (?+), ...";
+        assertEquals(expected, SlowQueryLog.fingerprint("INSERT INTO players (uuid, coins) VALUES (?, ?), (?, ?)"));
+        assertEquals(expected, SlowQueryLog.fingerprint("INSERT INTO players (uuid, coins) VALUES ('a', 1), ('b', 2), ('c', 3)"));
+        assertEquals("insert into players (uuid, coins) values (?+)",
+                SlowQueryLog.fingerprint("INSERT INTO players (uuid, coins) VALUES (?, ?)"));
+    }
+}
@@ -0,0 +1,248 @@
+package com.github.mittenmc.serverutils.database;
+
+import com.github.mittenmc.serverutils.database.FakeDatabase.Write;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteJournalTest {
+
+    private static final String INSERT = "INSERT INTO players (uuid, coins) VALUES (?, ?)";
+    private static final String UPDATE = "UPDATE players SET data = ?, name = ? WHERE id = ?";
+
+    @TempDir
+    Path folder;
+
+    private File file;
+    private FakeDatabase database;
+    private final List<WriteJournal> opened = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        file = folder.resolve("journal.log").toFile();
+        database = new FakeDatabase();
+    }
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(WriteJournal::close);
+    }
+
+    private WriteJournal open() throws IOException {
+        WriteJournal journal = new WriteJournal(file, Logger.getLogger("WriteJournalTest"), "test", database::getConnection);
+        opened.add(journal);
+        return journal;
+    }
+
+    private void close(WriteJournal journal) {
+        opened.remove(journal);
+        journal.close();
+    }
+
+    @Test
+    void emptyJournalHasNothingPending() throws IOException {
+        WriteJournal journal = open();
+
+        assertFalse(journal.hasPending());
+        assertEquals(0, journal.getPendingBytes());
+        assertTrue(journal.replay());
+        assertEquals(0, database.connections);
+    }
+
+    @Test
+    void replaysEveryParameterType() throws IOException {
+        WriteJournal journal = open();
+        Object[] params = {null, true, 7, 8L, 1.5f, 2.5, "text", new byte[]{1, 2, 3}};
+        journal.append("INSERT INTO t VALUES (?, ?, ?, ?, ?, ?, ?, ?)", params);
+
+        assertTrue(journal.hasPending());
+        assertTrue(journal.replay());
+
+        assertEquals(1, database.committed.size());
+        Write write = database.committed.get(0);
+        assertEquals("INSERT INTO t VALUES (?, ?, ?, ?, ?, ?, ?, ?)", write.sql());
+        assertEquals(params.length, write.params().length);
+        for (int i = 0; i < params.length - 1; i++) {
+            assertEquals(params[i], write.params()[i]);
+        }
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) write.params()[params.length - 1]);
+        assertFalse(journal.hasPending());
+    }
+
+    @Test
+    void rejectsUnsupportedParameters() throws IOException {
+        WriteJournal journal = open();
+
+        assertThrows(IllegalArgumentException.class, () -> journal.append(INSERT, new Object[]{new Object()}));
+        assertFalse(journal.hasPending());
+    }
+
+    @Test
+    void pendingWritesSurviveReopeningInOrder() throws IOException {
+        WriteJournal journal = open();
+        journal.append(INSERT, new Object[]{"a", 1});
+        journal.append(INSERT, new Object[]{"b", 2});
+        journal.append(UPDATE, new Object[]{new byte[]{9}, null, 3L});
+        journal.append(INSERT, new Object[]{"c", 3});
+        int pendingBytes = journal.getPendingBytes();
+        close(journal);
+
+        WriteJournal reopened = open();
+        assertEquals(pendingBytes, reopened.getPendingBytes());
+        assertTrue(reopened.replay());
+
+        assertEquals(List.of(INSERT, INSERT, UPDATE, INSERT), database.committed.stream().map(Write::sql).toList());
+        assertEquals("a", database.committed.get(0).params()[0]);
+        assertEquals(2, database.committed.get(1).params()[1]);
+        assertEquals(3L, database.committed.get(2).params()[2]);
+        assertEquals("c", database.committed.get(3).params()[0]);
+        // Consecutive writes of the same SQL share a statement
+        assertEquals(3, database.statements);
+        assertFalse(reopened.hasPending());
+    }
+
+    @Test
+    void replayedWritesAreNotReplayedAgain() throws IOException {
+        WriteJournal journal = open();
+        journal.append(INSERT, new Object[]{"a", 1});
+        assertTrue(journal.replay());
+        journal.append(INSERT, new Object[]{"b", 2});
+        close(journal);
+
+        WriteJournal reopened = open();
+        assertTrue(reopened.replay());
+        assertEquals(List.of("a", "b"), database.committed.stream().map(write -> write.params()[0]).toList());
+    }
+
+    @Test
+    void transientFailuresKeepWritesPending() throws IOException {
+        WriteJournal journal = open();
+        journal.append(INSERT, new Object[]{"a", 1});
+        database.unreachable = true;
+
+        assertFalse(journal.replay());
+        assertTrue(journal.hasPending());
+        assertTrue(database.committed.isEmpty());
+
+        database.unreachable = false;
+        assertTrue(journal.replay());
+        assertEquals(1, database.committed.size());
+    }
+
+    @Test
+    void permanentFailuresAreDeadLettered() throws IOException {
+        WriteJournal journal = open();
+        journal.append(INSERT, new Object[]{"a", 1});
+        journal.append(INSERT, new Object[]{"duplicate", 2});
+        journal.append(INSERT, new Object[]{"c", 3});
+        database.rejected = "duplicate";
+
+        assertTrue(journal.replay());
+        assertFalse(journal.hasPending());
+        assertEquals(List.of("a", "c"), database.committed.stream().map(write -> write.params()[0]).toList());
+
+        String deadLetters = Files.readString(folder.resolve("journal.log.dead-letter.log"));
+        assertTrue(deadLetters.contains(INSERT));
+        assertTrue(deadLetters.contains("duplicate, 2"));
+    }
+
+    @Test
+    void tornTailIsDiscardedOnRecovery() throws IOException {
+        WriteJournal journal = open();
+        journal.append(INSERT, new Object[]{"a", 1});
+        journal.append(INSERT, new Object[]{"b", 2});
+        int intactBytes = journal.getPendingBytes();
+        journal.append(INSERT, new Object[]{"torn", 3});
+        int tail = 16 + journal.getPendingBytes();
+        close(journal);
+
+        // Flip the last payload byte of the final record, as if the crash happened while it was being written
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(tail - 1);
+            int last = raf.read();
+            raf.seek(tail - 1);
+            raf.write(last ^ 0xFF);
+        }
+
+        WriteJournal recovered = open();
+        assertEquals(intactBytes, recovered.getPendingBytes());
+
+        // New writes go where the torn record was
+        recovered.append(INSERT, new Object[]{"c", 4});
+        assertTrue(recovered.replay());
+        assertEquals(List.of("a", "b", "c"), database.committed.stream().map(write -> write.params()[0]).toList());
+    }
+
+    @Test
+    void partiallyWrittenRecordIsDiscardedOnRecovery() throws IOException {
+        WriteJournal journal = open();
+        journal.append(INSERT, new Object[]{"a", 1});
+        int tail = 16 + journal.getPendingBytes();
+        close(journal);
+
+        // A length which runs past the data actually written, with no matching checksum
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(tail);
+            raf.writeInt(64);
+            raf.writeInt(0x12345678);
+            raf.write(new byte[]{0, 0, 0, 5, 'I', 'N'});
+        }
+
+        WriteJournal recovered = open();
+        assertTrue(recovered.replay());
+        assertEquals(1, database.committed.size());
+        assertEquals("a", database.committed.get(0).params()[0]);
+    }
+
+    @Test
+    void compactionKeepsOnlyPendingWrites() throws IOException {
+        WriteJournal journal = open();
+        for (int i = 0; i < 101; i++) {
+            journal.append(INSERT, new Object[]{"player" + i, i});
+        }
+        // The first batch of 100 commits, then the database goes down
+        database.failAfterConnections = 1;
+        assertFalse(journal.replay());
+        int pendingBytes = journal.getPendingBytes();
+        assertTrue(pendingBytes > 0);
+
+        journal.compact();
+        assertEquals(pendingBytes, journal.getPendingBytes());
+        journal.append(INSERT, new Object[]{"after", 101});
+        close(journal);
+        assertFalse(Files.exists(folder.resolve("journal.log.compact")));
+
+        database.failAfterConnections = Integer.MAX_VALUE;
+        database.committed.clear();
+        WriteJournal reopened = open();
+        assertTrue(reopened.replay());
+        assertEquals(List.of("player100", "after"), database.committed.stream().map(write -> write.params()[0]).toList());
+    }
+
+    @Test
+    void replayedWritesStayReplayedAfterCompaction() throws IOException {
+        WriteJournal journal = open();
+        journal.append(INSERT, new Object[]{"a", 1});
+        journal.append(INSERT, new Object[]{"b", 2});
+        assertTrue(journal.replay());
+        assertEquals(0, journal.getPendingBytes());
+        close(journal);
+
+        WriteJournal reopened = open();
+        assertFalse(reopened.hasPending());
+        assertTrue(reopened.replay());
+        assertEquals(2, database.committed.size());
+    }
+}
@@ -0,0 +1,164 @@
+package com.github.mittenmc.serverutils.player;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeaderboardIndexTest {
+
+    private static LeaderboardIndex<TestProfile> createIndex(boolean descending) {
+        return new LeaderboardIndex<>("coins", data -> data.coins, descending);
+    }
+
+    /**
+     * Ranks and rank lookups both walk the skip list by level widths, so they only agree with a sorted list
+     * if every width was kept correct through the inserts and deletes.
+     */
+    private static void assertMatches(LeaderboardIndex<TestProfile> index, Map<UUID, Double> scores, boolean descending) {
+        Comparator<Map.Entry<UUID, Double>> byScore = Map.Entry.comparingByValue();
+        if (descending) byScore = byScore.reversed();
+        List<Map.Entry<UUID, Double>> expected = new ArrayList<>(scores.entrySet());
+        expected.sort(byScore.thenComparing(Map.Entry.comparingByKey()));
+
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < expected.size(); i++) {
+            UUID uuid = expected.get(i).getKey();
+            assertEquals(i + 1, index.getRank(uuid));
+            assertEquals(new LeaderboardIndex.Entry(uuid, expected.get(i).getValue()), index.getEntry(i + 1));
+        }
+        assertNull(index.getEntry(0));
+        assertNull(index.getEntry(expected.size() + 1));
+
+        List<LeaderboardIndex.Entry> top = index.getTop(expected.size() + 5);
+        assertEquals(expected.size(), top.size());
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(expected.get(i).getKey(), top.get(i).uuid());
+        }
+    }
+
+    @Test
+    void ranksMatchSortedOrderThroughRandomUpdates() {
+        for (boolean descending : new boolean[]{true, false}) {
+            LeaderboardIndex<TestProfile> index = createIndex(descending);
+            Map<UUID, Double> scores = new HashMap<>();
+            List<UUID> uuids = new ArrayList<>();
+            Random random = new Random(descending ? 1 : 2);
+
+            for (int op = 0; op < 2000; op++) {
+                int action = random.nextInt(10);
+                if (action < 5 || uuids.isEmpty()) {
+                    UUID uuid = UUID.randomUUID();
+                    double score = random.nextInt(50);
+                    index.put(uuid, score);
+                    scores.put(uuid, score);
+                    uuids.add(uuid);
+                } else if (action < 8) {
+                    UUID uuid = uuids.get(random.nextInt(uuids.size()));
+                    double score = random.nextInt(50);
+                    index.put(uuid, score);
+                    scores.put(uuid, score);
+                } else {
+                    UUID uuid = uuids.remove(random.nextInt(uuids.size()));
+                    assertTrue(index.remove(uuid));
+                    scores.remove(uuid);
+                }
+
+                if (op % 100 == 0) assertMatches(index, scores, descending);
+            }
+            assertMatches(index, scores, descending);
+
+            for (UUID uuid : uuids) {
+                assertTrue(index.remove(uuid));
+            }
+            assertEquals(0, index.size());
+            assertTrue(index.getTop(10).isEmpty());
+        }
+    }
+
+    @Test
+    void tiesAreOrderedByUuid() {
+        LeaderboardIndex<TestProfile> index = createIndex(true);
+        UUID low = new UUID(0, 1);
+        UUID high = new UUID(0, 2);
+        index.put(high, 10);
+        index.put(low, 10);
+
+        assertEquals(1, index.getRank(low));
+        assertEquals(2, index.getRank(high));
+    }
+
+    @Test
+    void seededScoresDoNotReplaceLoadedProfiles() {
+        LeaderboardIndex<TestProfile> index = createIndex(true);
+        TestProfile data = new TestProfile(UUID.randomUUID());
+        data.coins = 20;
+        index.update(data);
+
+        index.put(data.getUniqueId(), 5);
+        assertEquals(Double.valueOf(20.0), index.getScore(data.getUniqueId()));
+
+        data.coins = 30;
+        index.update(data);
+        index.seed(new LeaderboardIndex.Entry(data.getUniqueId(), 5));
+        assertEquals(Double.valueOf(30.0), index.getScore(data.getUniqueId()));
+    }
+
+    @Test
+    void loadedProfilesReplaceSeededScores() {
+        LeaderboardIndex<TestProfile> index = createIndex(true);
+        TestProfile data = new TestProfile(UUID.randomUUID());
+        index.put(data.getUniqueId(), 5);
+
+        data.coins = 20;
+        index.update(data);
+        assertEquals(Double.valueOf(20.0), index.getScore(data.getUniqueId()));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void getRangeReturnsAPage() {
+        LeaderboardIndex<TestProfile> index = createIndex(false);
+        List<UUID> uuids = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            UUID uuid = UUID.randomUUID();
+            index.put(uuid, i);
+            uuids.add(uuid);
+        }
+
+        List<LeaderboardIndex.Entry> page = index.getRange(11, 10);
+        assertEquals(10, page.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(uuids.get(10 + i), page.get(i).uuid());
+        }
+        assertEquals(5, index.getRange(21, 10).size());
+        assertTrue(index.getRange(26, 10).isEmpty());
+    }
+
+    @Test
+    void missingPlayersHaveNoRank() {
+        LeaderboardIndex<TestProfile> index = createIndex(true);
+        UUID uuid = UUID.randomUUID();
+
+        assertEquals(-1, index.getRank(uuid));
+        assertNull(index.getScore(uuid));
+        assertFalse(index.remove(uuid));
+    }
+
+    @Test
+    void clearRemovesEveryEntry() {
+        LeaderboardIndex<TestProfile> index = createIndex(true);
+        for (int i = 0; i < 100; i++) {
+            index.put(UUID.randomUUID(), i);
+        }
+        index.clear();
+
+        assertEquals(0, index.size());
+        assertNull(index.getEntry(1));
+
+        UUID uuid = UUID.randomUUID();
+        index.put(uuid, 1);
+        assertEquals(1, index.getRank(uuid));
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.mittenmc.serverutils.player;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OfflineProfileCacheTest {
+
+    private List<UUID> evicted;
+    private List<TestProfile> evictedProfiles;
+    private AtomicLong now;
+
+    @BeforeEach
+    void setUp() {
+        evicted = new ArrayList<>();
+        evictedProfiles = new ArrayList<>();
+        now = new AtomicLong(1000);
+    }
+
+    private OfflineProfileCache<TestProfile> createCache(int maximumSize, long ttlMillis) {
+        return new OfflineProfileCache<>(maximumSize, ttlMillis, (uuid, data) -> {
+            evicted.add(uuid);
+            evictedProfiles.add(data);
+        }, now::get);
+    }
+
+    private static TestProfile put(OfflineProfileCache<TestProfile> cache) {
+        TestProfile data = new TestProfile(UUID.randomUUID());
+        cache.put(data.getUniqueId(), data);
+        return data;
+    }
+
+    private void advanceClock() {
+        now.addAndGet(5);
+    }
+
+    @Test
+    void getRecordsHitsAndMisses() {
+        OfflineProfileCache<TestProfile> cache = createCache(10, 0);
+        TestProfile data = put(cache);
+
+        assertSame(data, cache.get(data.getUniqueId()));
+        assertNull(cache.get(UUID.randomUUID()));
+        assertSame(data, cache.peek(data.getUniqueId()));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate());
+    }
+
+    @Test
+    void removeDoesNotNotifyTheListener() {
+        OfflineProfileCache<TestProfile> cache = createCache(10, 0);
+        TestProfile data = put(cache);
+
+        assertSame(data, cache.remove(data.getUniqueId()));
+        assertEquals(0, cache.size());
+        assertTrue(evicted.isEmpty());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedPastMaximumSize() {
+        OfflineProfileCache<TestProfile> cache = createCache(10, 0);
+        List<TestProfile> profiles = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            profiles.add(put(cache));
+            advanceClock();
+        }
+        // Touching the oldest profile keeps it in the cache
+        cache.get(profiles.get(0).getUniqueId());
+        advanceClock();
+
+        put(cache);
+
+        // Evicts down to 10% below the maximum
+        assertEquals(9, cache.size());
+        assertEquals(List.of(profiles.get(1).getUniqueId(), profiles.get(2).getUniqueId()), evicted);
+        assertSame(profiles.get(1), evictedProfiles.get(0));
+        assertTrue(cache.containsKey(profiles.get(0).getUniqueId()));
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    void profilesWithViewersAreNeverEvicted() {
+        OfflineProfileCache<TestProfile> cache = createCache(1, 1);
+        TestProfile viewed = put(cache);
+        viewed.getProfileViewers().addViewer(TestProfile.player(UUID.randomUUID()));
+        advanceClock();
+
+        TestProfile other = put(cache);
+        assertTrue(cache.containsKey(viewed.getUniqueId()));
+        assertEquals(List.of(), evicted.stream().filter(uuid -> uuid.equals(viewed.getUniqueId())).toList());
+
+        advanceClock();
+        cache.evictExpired();
+        assertTrue(cache.containsKey(viewed.getUniqueId()));
+        assertFalse(cache.containsKey(other.getUniqueId()));
+    }
+
+    @Test
+    void evictExpiredRemovesIdleProfiles() {
+        OfflineProfileCache<TestProfile> cache = createCache(0, 1);
+        TestProfile data = put(cache);
+        advanceClock();
+
+        assertEquals(1, cache.evictExpired());
+        assertEquals(List.of(data.getUniqueId()), evicted);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void compactionRequiresDirtyTracking() {
+        OfflineProfileCache<TestProfile> cache = createCache(10, 0);
+        cache.enableCompaction(TestProfile.compactor(), 0, false);
+        put(cache);
+
+        // Without tracking, a profile changed without markDirty looks clean and would lose its changes
+        assertEquals(0, cache.compactIdle());
+        assertEquals(0, cache.getDormantCount());
+    }
+
+    @Test
+    void compactsCleanProfilesAndRehydratesThem() {
+        OfflineProfileCache<TestProfile> cache = createCache(10, 0);
+        cache.setDirtyTracking(true);
+        cache.enableCompaction(TestProfile.compactor(), 0, false);
+        TestProfile data = put(cache);
+        data.coins = 42;
+
+        assertEquals(1, cache.compactIdle());
+        assertEquals(1, cache.getDormantCount());
+        assertEquals(4, cache.getDormantBytes());
+        assertEquals(0, cache.values().size());
+
+        TestProfile rehydrated = cache.get(data.getUniqueId());
+        assertNotNull(rehydrated);
+        assertNotSame(data, rehydrated);
+        assertEquals(42, rehydrated.coins);
+        assertEquals(0, cache.getDormantCount());
+        assertEquals(0, cache.getDormantBytes());
+        assertEquals(1, cache.getRehydrations());
+    }
+
+    @Test
+    void compactsOffHeap() {
+        OfflineProfileCache<TestProfile> cache = createCache(10, 0);
+        cache.setDirtyTracking(true);
+        cache.enableCompaction(TestProfile.compactor(), 0, true);
+        TestProfile data = put(cache);
+        data.coins = 7;
+
+        assertEquals(1, cache.compactIdle());
+        assertEquals(7, cache.peek(data.getUniqueId()).coins);
+    }
+
+    @Test
+    void dirtyAndViewedProfilesAreNotCompacted() {
+        OfflineProfileCache<TestProfile> cache = createCache(10, 0);
+        cache.setDirtyTracking(true);
+        cache.enableCompaction(TestProfile.compactor(), 0, false);
+        TestProfile dirty = put(cache);
+        dirty.markDirty();
+        TestProfile viewed = put(cache);
+        viewed.getProfileViewers().addViewer(TestProfile.player(UUID.randomUUID()));
+
+        assertEquals(0, cache.compactIdle());
+        assertEquals(2, cache.values().size());
+    }
+
+    @Test
+    void dormantProfilesAreEvictedWithoutTheirObject() {
+        OfflineProfileCache<TestProfile> cache = createCache(0, 1);
+        cache.setDirtyTracking(true);
+        cache.enableCompaction(TestProfile.compactor(), 0, false);
+        TestProfile data = put(cache);
+        cache.compactIdle();
+        advanceClock();
+
+        assertEquals(1, cache.evictExpired());
+        assertEquals(List.of(data.getUniqueId()), evicted);
+        assertNull(evictedProfiles.get(0));
+        assertEquals(0, cache.getDormantCount());
+    }
+
+    @Test
+    void removeDormantOnlyRemovesCompactedProfiles() {
+        OfflineProfileCache<TestProfile> cache = createCache(10, 0);
+        cache.setDirtyTracking(true);
+        cache.enableCompaction(TestProfile.compactor(), 0, false);
+        TestProfile dormant = put(cache);
+        cache.compactIdle();
+        TestProfile resident = put(cache);
+        resident.markDirty();
+
+        assertEquals(List.of(dormant.getUniqueId()), cache.removeDormant());
+        assertEquals(1, cache.size());
+        assertTrue(cache.containsKey(resident.getUniqueId()));
+        assertTrue(evicted.isEmpty());
+    }
+}
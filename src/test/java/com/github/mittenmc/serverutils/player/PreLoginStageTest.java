@@ -0,0 +1,110 @@
+package com.github.mittenmc.serverutils.player;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreLoginStageTest {
+
+    private static final long TTL = 1000;
+
+    private List<UUID> released;
+    private PreLoginStage<TestProfile> stage;
+    private UUID uuid;
+    private TestProfile data;
+
+    @BeforeEach
+    void setUp() {
+        released = new ArrayList<>();
+        stage = new PreLoginStage<>(released::add);
+        stage.setTimeToLive(TTL);
+        uuid = UUID.randomUUID();
+        data = new TestProfile(uuid);
+    }
+
+    @Test
+    void claimedDataKeepsTheLease() {
+        stage.offer(uuid, data, 0);
+
+        assertSame(data, stage.claim(uuid, TTL - 1));
+        assertNull(stage.claim(uuid, TTL - 1));
+        assertEquals(0, stage.size());
+        assertTrue(released.isEmpty());
+    }
+
+    @Test
+    void expiredDataIsNotClaimedButKeepsTheLease() {
+        stage.offer(uuid, data, 0);
+
+        // The player joined, so their load needs the lease
+        assertNull(stage.claim(uuid, TTL));
+        assertTrue(released.isEmpty());
+    }
+
+    @Test
+    void failedLoadsReleaseTheLease() {
+        stage.offer(uuid, null, 0);
+
+        assertEquals(List.of(uuid), released);
+        assertEquals(0, stage.size());
+    }
+
+    @Test
+    void deniedLoginsReleaseTheLease() {
+        stage.offer(uuid, data, 0);
+        stage.discard(uuid);
+        stage.discard(uuid);
+
+        assertEquals(List.of(uuid), released);
+        assertNull(stage.claim(uuid, 0));
+    }
+
+    @Test
+    void deniedLoginsWithoutDataReleaseNothing() {
+        stage.discard(uuid);
+
+        assertTrue(released.isEmpty());
+    }
+
+    @Test
+    void expiredDataReleasesTheLease() {
+        UUID other = UUID.randomUUID();
+        stage.offer(uuid, data, 0);
+        stage.offer(other, new TestProfile(other), 500);
+
+        assertEquals(0, stage.expire(TTL - 1));
+        assertEquals(1, stage.expire(TTL));
+        assertEquals(List.of(uuid), released);
+        assertEquals(1, stage.size());
+
+        assertEquals(1, stage.expire(TTL + 500));
+        assertEquals(List.of(uuid, other), released);
+    }
+
+    @Test
+    void disablingReleasesEveryLease() {
+        UUID other = UUID.randomUUID();
+        stage.offer(uuid, data, 0);
+        stage.offer(other, new TestProfile(other), 0);
+
+        stage.clear();
+        assertFalse(stage.isEnabled());
+        assertEquals(2, released.size());
+        assertTrue(released.containsAll(List.of(uuid, other)));
+        assertEquals(0, stage.size());
+    }
+
+    @Test
+    void loadsFinishingAfterDisablingReleaseTheLease() {
+        stage.clear();
+        stage.offer(uuid, data, 0);
+
+        assertEquals(List.of(uuid), released);
+        assertEquals(0, stage.size());
+    }
+}
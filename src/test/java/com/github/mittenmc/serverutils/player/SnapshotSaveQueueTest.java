@@ -0,0 +1,200 @@
+package com.github.mittenmc.serverutils.player;
+
+import com.github.mittenmc.serverutils.player.profile.ProfileSnapshot;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotSaveQueueTest {
+
+    private ExecutorService executor;
+    private List<Long> written;
+    private volatile CountDownLatch blocked;
+    private volatile CountDownLatch started;
+    private volatile long failFrom;
+    private SnapshotSaveQueue queue;
+    private TestProfile profile;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+        written = new CopyOnWriteArrayList<>();
+        queue = new SnapshotSaveQueue(executor, snapshot -> {
+            started.countDown();
+            await(blocked);
+            if (snapshot.getVersion() >= failFrom) return false;
+            written.add(snapshot.getVersion());
+            return true;
+        });
+        blocked = new CountDownLatch(0);
+        failFrom = Long.MAX_VALUE;
+        started = new CountDownLatch(1);
+        profile = new TestProfile(UUID.randomUUID());
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static boolean result(CompletableFuture<Boolean> save) throws Exception {
+        return save.get(5, TimeUnit.SECONDS);
+    }
+
+    private ProfileSnapshot snapshot() {
+        return new ProfileSnapshot(profile) {};
+    }
+
+    /**
+     * Starts a save of version 1 which blocks its save thread until released.
+     */
+    private CompletableFuture<Boolean> startBlockedSave() {
+        blocked = new CountDownLatch(1);
+        profile.markDirty("coins");
+        CompletableFuture<Boolean> save = queue.save(profile, snapshot());
+        await(started);
+        return save;
+    }
+
+    @Test
+    void savesMarkTheSavedVersion() throws Exception {
+        profile.markDirty("coins");
+
+        assertTrue(result(queue.save(profile, snapshot())));
+        assertEquals(List.of(1L), written);
+        assertEquals(1, profile.getSavedVersion());
+        assertFalse(profile.isDirty());
+        assertTrue(queue.getPending().isEmpty());
+    }
+
+    @Test
+    void waitingSnapshotsAreReplacedByNewerOnes() throws Exception {
+        CompletableFuture<Boolean> first = startBlockedSave();
+        profile.markDirty("kills");
+        CompletableFuture<Boolean> second = queue.save(profile, snapshot());
+        profile.markDirty("deaths");
+        CompletableFuture<Boolean> third = queue.save(profile, snapshot());
+
+        blocked.countDown();
+        assertTrue(result(first));
+        assertTrue(result(second));
+        assertTrue(result(third));
+        // The second snapshot was never written, since the third holds all of its changes
+        assertEquals(List.of(1L, 3L), written);
+        assertEquals(3, profile.getSavedVersion());
+    }
+
+    @Test
+    void replacedSnapshotsFailWithTheNewerSave() throws Exception {
+        CompletableFuture<Boolean> first = startBlockedSave();
+        profile.markDirty("kills");
+        CompletableFuture<Boolean> second = queue.save(profile, snapshot());
+        profile.markDirty("deaths");
+        CompletableFuture<Boolean> third = queue.save(profile, snapshot());
+
+        failFrom = 0;
+        blocked.countDown();
+        assertFalse(result(first));
+        assertFalse(result(second));
+        assertFalse(result(third));
+
+        // Nothing was written, so every change is still in the next delta
+        assertEquals(0, profile.getSavedVersion());
+        assertEquals(Set.of("coins", "kills", "deaths"), profile.getDelta().getChangedFields());
+    }
+
+    @Test
+    void replacedSnapshotsDoNotMarkTheirVersionSaved() throws Exception {
+        CompletableFuture<Boolean> first = startBlockedSave();
+        profile.markDirty("kills");
+        CompletableFuture<Boolean> second = queue.save(profile, snapshot());
+        profile.markDirty("deaths");
+        CompletableFuture<Boolean> third = queue.save(profile, snapshot());
+
+        // Only the first write succeeds
+        failFrom = 2;
+        blocked.countDown();
+        assertTrue(result(first));
+        assertFalse(result(third));
+        assertFalse(result(second));
+
+        assertEquals(1, profile.getSavedVersion());
+        assertEquals(Set.of("kills", "deaths"), profile.getDelta().getChangedFields());
+    }
+
+    @Test
+    void savingAWaitingVersionReturnsTheWaitingSave() throws Exception {
+        CompletableFuture<Boolean> first = startBlockedSave();
+        profile.markDirty("kills");
+        CompletableFuture<Boolean> second = queue.save(profile, snapshot());
+
+        assertSame(second, queue.save(profile, snapshot()));
+        assertEquals(1, queue.getPending().size());
+
+        blocked.countDown();
+        assertTrue(result(first));
+        assertTrue(result(second));
+        assertEquals(List.of(1L, 2L), written);
+    }
+
+    @Test
+    void untrackedProfilesAreAlwaysWritten() throws Exception {
+        blocked = new CountDownLatch(1);
+        CompletableFuture<Boolean> first = queue.save(profile, snapshot());
+        await(started);
+        CompletableFuture<Boolean> second = queue.save(profile, snapshot());
+        assertNotSame(first, second);
+
+        blocked.countDown();
+        assertTrue(result(first));
+        assertTrue(result(second));
+        assertEquals(List.of(0L, 0L), written);
+    }
+
+    @Test
+    void writerErrorsFailTheSaveWithoutBlockingLaterSaves() throws Exception {
+        SnapshotSaveQueue throwing = new SnapshotSaveQueue(executor, snapshot -> {
+            if (snapshot.getVersion() == 1) throw new IllegalStateException("write failed");
+            written.add(snapshot.getVersion());
+            return true;
+        });
+        profile.markDirty("coins");
+        CompletableFuture<Boolean> first = throwing.save(profile, snapshot());
+        assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+
+        profile.markDirty("kills");
+        assertTrue(result(throwing.save(profile, snapshot())));
+        assertEquals(List.of(2L), written);
+    }
+
+    @Test
+    void rejectedSavesFail() {
+        executor.shutdown();
+        profile.markDirty("coins");
+
+        CompletableFuture<Boolean> save = queue.save(profile, snapshot());
+        assertThrows(ExecutionException.class, () -> save.get(5, TimeUnit.SECONDS));
+        assertTrue(queue.getPending().isEmpty());
+    }
+}
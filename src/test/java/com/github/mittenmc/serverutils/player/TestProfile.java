@@ -0,0 +1,74 @@
+package com.github.mittenmc.serverutils.player;
+
+import com.github.mittenmc.serverutils.player.profile.PlayerProfile;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * A profile holding a single value, backed by a fake offline player.
+ */
+public class TestProfile extends PlayerProfile {
+
+    public int coins;
+
+    public TestProfile(UUID uuid) {
+        super(offlinePlayer(uuid));
+    }
+
+    public static OfflinePlayer offlinePlayer(UUID uuid) {
+        return fake(OfflinePlayer.class, uuid);
+    }
+
+    public static Player player(UUID uuid) {
+        return fake(Player.class, uuid);
+    }
+
+    /**
+     * @return A player which only knows its UUID and is offline
+     */
+    private static <T> T fake(Class<T> type, UUID uuid) {
+        Object proxy = Proxy.newProxyInstance(TestProfile.class.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return uuid;
+                case "getName":
+                    return uuid.toString().substring(0, 8);
+                case "hashCode":
+                    return uuid.hashCode();
+                case "equals":
+                    return self == args[0];
+                case "toString":
+                    return type.getSimpleName() + "[" + uuid + "]";
+                default:
+                    Class<?> returnType = method.getReturnType();
+                    if (returnType == boolean.class) return false;
+                    if (returnType == int.class) return 0;
+                    if (returnType == long.class) return 0L;
+                    if (returnType == double.class) return 0.0;
+                    if (returnType == float.class) return 0f;
+                    return null;
+            }
+        });
+        return type.cast(proxy);
+    }
+
+    public static OfflineProfileCache.Compactor<TestProfile> compactor() {
+        return new OfflineProfileCache.Compactor<>() {
+            @Override
+            public byte[] compact(TestProfile data) {
+                return ByteBuffer.allocate(4).putInt(data.coins).array();
+            }
+
+            @Override
+            public TestProfile expand(UUID uuid, byte[] bytes) {
+                TestProfile data = new TestProfile(uuid);
+                data.coins = ByteBuffer.wrap(bytes).getInt();
+                return data;
+            }
+        };
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.mittenmc.serverutils.player.profile;
+
+import com.github.mittenmc.serverutils.player.TestProfile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlayerProfileTest {
+
+    private TestProfile profile;
+
+    @BeforeEach
+    void setUp() {
+        profile = new TestProfile(UUID.randomUUID());
+    }
+
+    @Test
+    void newProfilesAreClean() {
+        assertFalse(profile.isDirty());
+        assertEquals(0, profile.getVersion());
+    }
+
+    @Test
+    void untrackedProfilesHaveFullDeltas() {
+        profile.coins = 5;
+
+        // Nothing was marked, so the save cannot know what changed
+        ProfileDelta delta = profile.getDelta();
+        assertTrue(delta.isFull());
+        assertFalse(delta.isEmpty());
+        assertTrue(delta.hasChanged("coins"));
+    }
+
+    @Test
+    void fieldChangesAreTrackedByName() {
+        profile.markDirty("coins");
+        profile.markDirty("kills");
+        profile.markDirty("coins");
+
+        ProfileDelta delta = profile.getDelta();
+        assertTrue(profile.isDirty());
+        assertEquals(3, delta.getVersion());
+        assertEquals(Set.of("coins", "kills"), delta.getChangedFields());
+        assertFalse(delta.isFull());
+        assertTrue(delta.hasChanged("coins"));
+        assertFalse(delta.hasChanged("deaths"));
+        assertFalse(delta.isEmpty());
+    }
+
+    @Test
+    void unnamedChangesMakeTheDeltaFull() {
+        profile.markDirty("coins");
+        profile.markDirty();
+
+        ProfileDelta delta = profile.getDelta();
+        assertTrue(delta.isFull());
+        assertTrue(delta.hasChanged("deaths"));
+        assertEquals(Set.of("coins"), delta.getChangedFields());
+    }
+
+    @Test
+    void markSavedClearsTheSavedDelta() {
+        profile.markDirty();
+        profile.markDirty("coins");
+        profile.markSaved(profile.getDelta().getVersion());
+
+        assertFalse(profile.isDirty());
+        assertEquals(2, profile.getSavedVersion());
+        assertTrue(profile.getDelta().isEmpty());
+    }
+
+    @Test
+    void changesDuringASaveStayInTheNextDelta() {
+        profile.markDirty("coins");
+        profile.markDirty();
+        ProfileDelta saving = profile.getDelta();
+
+        // Changed while the save above was running
+        profile.markDirty("kills");
+        profile.markDirty("coins");
+        profile.markSaved(saving.getVersion());
+
+        ProfileDelta next = profile.getDelta();
+        assertTrue(profile.isDirty());
+        assertEquals(Set.of("kills", "coins"), next.getChangedFields());
+        assertFalse(next.isFull());
+        assertFalse(next.hasChanged("deaths"));
+    }
+
+    @Test
+    void fullChangesDuringASaveStayFull() {
+        profile.markDirty("coins");
+        ProfileDelta saving = profile.getDelta();
+        profile.markDirty();
+        profile.markSaved(saving.getVersion());
+
+        ProfileDelta next = profile.getDelta();
+        assertTrue(next.isFull());
+        assertTrue(next.getChangedFields().isEmpty());
+    }
+
+    @Test
+    void markSavedNeverMovesBackwards() {
+        profile.markDirty("coins");
+        long first = profile.getVersion();
+        profile.markDirty("kills");
+        long second = profile.getVersion();
+
+        // A slower save of an older version finishes last
+        profile.markSaved(second);
+        profile.markSaved(first);
+
+        assertEquals(second, profile.getSavedVersion());
+        assertFalse(profile.isDirty());
+        assertTrue(profile.getDelta().isEmpty());
+    }
+
+    @Test
+    void dirtyListenerRunsOnEveryChange() {
+        AtomicInteger calls = new AtomicInteger();
+        profile.setDirtyListener(calls::incrementAndGet);
+        profile.markDirty();
+        profile.markDirty("coins");
+        assertEquals(2, calls.get());
+
+        profile.setDirtyListener(null);
+        profile.markDirty();
+        assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.mittenmc.serverutils.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    private static void recordMicros(LatencyHistogram histogram, long micros) {
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMicros());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(99));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 0; micros < 8; micros++) {
+            recordMicros(histogram, micros);
+        }
+
+        assertEquals(8, histogram.getCount());
+        assertEquals(3, histogram.getPercentileMicros(50));
+        assertEquals(7, histogram.getPercentileMicros(100));
+        assertEquals(7, histogram.getMaxMicros());
+    }
+
+    @Test
+    void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 10_000; micros++) {
+            recordMicros(histogram, micros);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(5000, histogram.getMeanMicros());
+        for (double percentile : new double[]{1, 25, 50, 90, 99, 99.9}) {
+            long exact = (long) Math.ceil(10_000 * percentile / 100);
+            long reported = histogram.getPercentileMicros(percentile);
+            assertTrue(reported >= exact, "p" + percentile + " was " + reported + ", below " + exact);
+            assertTrue(reported <= exact * 1.125, "p" + percentile + " was " + reported + ", too far above " + exact);
+        }
+    }
+
+    @Test
+    void percentileNeverExceedsMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        recordMicros(histogram, 1000);
+
+        assertEquals(1000, histogram.getPercentileMicros(50));
+        assertEquals(1000, histogram.getPercentileMicros(100));
+        assertEquals(1000, histogram.getPercentileMicros(250));
+    }
+
+    @Test
+    void negativeDurationsCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5_000);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    void largeValuesDoNotOverflowBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(TimeUnit.NANOSECONDS.toMicros(Long.MAX_VALUE), histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        recordMicros(histogram, 100);
+        recordMicros(histogram, 200);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMicros());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(50));
+    }
+}